@@ -18,21 +18,25 @@ package net.nettime.mobileimsdk.server.netty;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.Iterator;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import net.openmob.mobileimsdk.server.utils.ServerToolKits;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.AbstractChannel;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelMetadata;
 import io.netty.channel.ChannelOutboundBuffer;
 import io.netty.channel.ChannelPromise;
 import io.netty.channel.DefaultChannelConfig;
 import io.netty.channel.DefaultEventLoop;
 import io.netty.channel.EventLoop;
-import io.netty.channel.socket.DatagramPacket;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.util.ReferenceCountUtil;
-import io.netty.util.internal.RecyclableArrayList;
 
 /**
  * 仿照TCP协议的AbstractNioChannel实现的专用于UDP的客端Channel实现类。
@@ -40,25 +44,62 @@ import io.netty.util.internal.RecyclableArrayList;
  */
 public class MBUDPChannel extends AbstractChannel 
 {
+	private static final AtomicIntegerFieldUpdater<MBUDPChannel> QUEUED_BYTES_UPDATER = 
+			AtomicIntegerFieldUpdater.newUpdater(MBUDPChannel.class, "queuedBytes");
+	
 	protected final ChannelMetadata metadata = new ChannelMetadata(false);
-	protected final DefaultChannelConfig config = new DefaultChannelConfig(this);
+	protected final ChannelConfig config;
 	
+	/** 
+	 * 收到但尚未被处理的数据报队列（socket的IO线程放入，worker线程取出）。
+	 * 取出操作与丢弃旧数据报（见 MBUDPInboundLimiter.OverloadPolicy ）须在本队列的同步锁内进行，以免丢弃一个正在被处理的数据报。
+	 */
 	private final ConcurrentLinkedQueue<ByteBuf> buffers = new ConcurrentLinkedQueue<ByteBuf>();
+	/** 队列中数据报的总字节数（按ByteBuf的容量计） **/
+	private volatile int queuedBytes = 0;
+	/** 是否因入站排队超限而被关闭 **/
+	private volatile boolean overloadClosed = false;
 
-	/** 对应的服务端Channel实例引用 **/
-	protected final MBUDPServerChannel serverchannel;
+	/** 对应的服务端Channel实例引用（即实际收发数据报的socket channel：NIO版的MBUDPServerChannel或native epoll版的EpollDatagramChannel） **/
+	protected final Channel serverchannel;
+	/** 本Channel所属的会话表 **/
+	protected final MBUDPSessionTable sessionTable;
 	/** 本Channel对应的客户端IP+端口信息 **/
-	protected final InetSocketAddress remote;
+	protected volatile InetSocketAddress remote;
 	
 	private volatile boolean open = true;
+	/** 打包写出时每个数据报的最大字节数（见 MBUDPPackedFrames ），0表示客户端不支持打包帧 **/
+	private volatile int packingBudget = 0;
+	/** 本会话的令牌（见 MBUDPSessionTokens ），0表示尚未分配 **/
+	volatile long sessionToken = 0;
+	/** 最近一次收到本客户端数据报时空闲超时时间轮的刻度（见 MBUDPIdleReaper ，只在socket的IO线程中读写） **/
+	long lastActiveTick;
 	
 	private boolean reading = false;
 	
-	protected MBUDPChannel(MBUDPServerChannel serverchannel, InetSocketAddress remote) 
+	protected MBUDPChannel(MBUDPSessionTable sessionTable, InetSocketAddress remote) 
+	{
+		super(sessionTable.socketChannel());
+		this.serverchannel = sessionTable.socketChannel();
+		this.sessionTable = sessionTable;
+		this.remote = remote;
+		this.config = new DefaultChannelConfig(this);
+	}
+	
+	/**
+	 * 供不经pipeline读取数据的子类（如 MBUDPFlatChannel）使用的构造方法：多个会话共用同一个config实例。
+	 * 
+	 * @param sessionTable 所属的会话表
+	 * @param remote 客户端地址
+	 * @param sharedConfig 共用的config实例
+	 */
+	protected MBUDPChannel(MBUDPSessionTable sessionTable, InetSocketAddress remote, ChannelConfig sharedConfig) 
 	{
-		super(serverchannel);
-		this.serverchannel = serverchannel;
+		super(sessionTable.socketChannel());
+		this.serverchannel = sessionTable.socketChannel();
+		this.sessionTable = sessionTable;
 		this.remote = remote;
+		this.config = sharedConfig;
 	}
 
 	@Override
@@ -89,7 +130,9 @@ public class MBUDPChannel extends AbstractChannel
 	protected void doClose() throws Exception 
 	{
 		open = false;
-		serverchannel.removeChannel(this);
+		MBUDPSessionTokens.getInstance().revoke(this);
+		sessionTable.removeChannel(this);
+		releaseBuffers();
 	}
 
 	@Override
@@ -98,9 +141,230 @@ public class MBUDPChannel extends AbstractChannel
 		doClose();
 	}
 
-	protected void addBuffer(ByteBuf buffer) 
+	/**
+	 * 将收到的数据报放入待处理队列（在socket的IO线程中调用）。
+	 * 设置了 MBUDPInboundLimiter 时，若排队字节数超出限额则按其策略处理。
+	 * 
+	 * @param buffer 数据报内容，调用本方法后其所有权即交给了本Channel
+	 * @return true表示已放入队列，false表示已被丢弃
+	 */
+	protected boolean addBuffer(ByteBuf buffer) 
 	{
+		int size = buffer.capacity();
+		MBUDPInboundLimiter limiter = sessionTable.getInboundLimiter();
+		if (limiter != null)
+		{
+			while (limiter.isOverloaded(queuedBytes, size))
+			{
+				MBUDPInboundLimiter.OverloadPolicy policy = limiter.getPolicy();
+				if (policy == MBUDPInboundLimiter.OverloadPolicy.DROP_OLDEST_NON_QOS && dropOldestNonQoS(limiter))
+					continue;
+				
+				buffer.release();
+				if (policy == MBUDPInboundLimiter.OverloadPolicy.CLOSE_SESSION && isCloseable())
+				{
+					if (!overloadClosed)
+					{
+						overloadClosed = true;
+						limiter.countClosedSession();
+					}
+					limiter.countDroppedOnClose(1);
+					close();
+				}
+				else
+				{
+					limiter.countDroppedNewest();
+				}
+				return false;
+			}
+			limiter.acquire(size);
+		}
+		
+		QUEUED_BYTES_UPDATER.addAndGet(this, size);
 		buffers.add(buffer);
+		
+		// 与close()竞争时，确保队列中的数据报都能被释放
+		if (!open)
+			releaseBuffers();
+		return true;
+	}
+	
+	/**
+	 * 从待处理队列中取出一个数据报（在worker线程中调用）。
+	 * @return 队列为空时返回null
+	 */
+	protected ByteBuf pollBuffer()
+	{
+		ByteBuf buffer;
+		synchronized (buffers)
+		{
+			buffer = buffers.poll();
+		}
+		if (buffer != null)
+			releaseQueuedBytes(buffer.capacity());
+		return buffer;
+	}
+	
+	/**
+	 * 丢弃队列中最早的一个非QoS数据报。
+	 * @return 没有可丢弃的数据报时返回false
+	 */
+	private boolean dropOldestNonQoS(MBUDPInboundLimiter limiter)
+	{
+		ByteBuf dropped = null;
+		synchronized (buffers)
+		{
+			Iterator<ByteBuf> it = buffers.iterator();
+			while (it.hasNext())
+			{
+				ByteBuf queued = it.next();
+				if (!ServerToolKits.isQoSFrame(queued))
+				{
+					it.remove();
+					dropped = queued;
+					break;
+				}
+			}
+		}
+		
+		if (dropped == null)
+			return false;
+		
+		releaseQueuedBytes(dropped.capacity());
+		dropped.release();
+		limiter.countDroppedOldest();
+		return true;
+	}
+	
+	/**
+	 * 释放队列中尚未处理的全部数据报（会话关闭时调用）。
+	 */
+	private void releaseBuffers()
+	{
+		int count = 0;
+		ByteBuf buffer;
+		while ((buffer = pollBuffer()) != null)
+		{
+			buffer.release();
+			count++;
+		}
+		
+		MBUDPInboundLimiter limiter = sessionTable.getInboundLimiter();
+		if (overloadClosed && count > 0 && limiter != null)
+			limiter.countDroppedOnClose(count);
+	}
+	
+	private void releaseQueuedBytes(int size)
+	{
+		QUEUED_BYTES_UPDATER.addAndGet(this, -size);
+		MBUDPInboundLimiter limiter = sessionTable.getInboundLimiter();
+		if (limiter != null)
+			limiter.release(size);
+	}
+	
+	/**
+	 * 客户端地址改变（如NAT重新映射）后更新本Channel的客户端地址，此后发往客户端的数据报都将发到新地址
+	 * （在socket的IO线程中由会话表调用，见 MBUDPSessionTable ）。
+	 * 
+	 * @param remote 新的客户端地址
+	 */
+	void rebind(InetSocketAddress remote)
+	{
+		this.remote = remote;
+	}
+	
+	/**
+	 * 设置发给本客户端的数据帧是否打包写出（见 MBUDPPackedFrames ）。
+	 * 
+	 * @param packingBudget 打包后每个数据报的最大字节数，0表示不打包
+	 */
+	public void setPackingBudget(int packingBudget)
+	{
+		this.packingBudget = packingBudget;
+	}
+	
+	public int getPackingBudget()
+	{
+		return packingBudget;
+	}
+	
+	protected boolean hasBuffers()
+	{
+		return !buffers.isEmpty();
+	}
+	
+	/**
+	 * 将本Channel迁移到指定的worker线程（已在该线程上或尚未注册时什么也不做），见 MBUDPWorkerScheduler 。
+	 *
+	 * 先从原线程注销再注册到新线程，注销期间收到的数据报暂留在队列中，待注册到新线程后再开始读取，因而仍按收到的顺序处理。
+	 * 
+	 * @param target 目标worker线程
+	 */
+	public void migrateTo(final EventLoop target)
+	{
+		if (!isRegistered() || eventLoop() == target)
+			return;
+		
+		deregister().addListener(new ChannelFutureListener() {
+			@Override
+			public void operationComplete(ChannelFuture future) throws Exception
+			{
+				if (!future.isSuccess())
+					return;
+				
+				// 注销期间已被关闭：未注册的Channel关闭时netty不会触发channelInactive，须在此补发，以便上层清理会话
+				if (!isOpen())
+				{
+					pipeline().fireChannelInactive();
+					return;
+				}
+				
+				target.register(MBUDPChannel.this).addListener(new ChannelFutureListener() {
+					@Override
+					public void operationComplete(ChannelFuture future) throws Exception
+					{
+						if (future.isSuccess())
+							return;
+						
+						// 注册失败（如在上面的检查之后才被关闭）时本Channel仍处于未注册状态，close()对其无效，须直接关闭，
+						// 并同样补发channelInactive，以便上层清理会话（目标线程已停止即服务端正在停止时，事件无法送达，也无需清理）
+						if (isOpen())
+							unsafe().closeForcibly();
+						pipeline().fireChannelInactive();
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * 当前是否可以调用close()（尚未注册到worker线程时不能关闭）。
+	 * @return
+	 */
+	protected boolean isCloseable()
+	{
+		return isRegistered();
+	}
+	
+	/**
+	 * 返回本会话队列中待处理数据报的总字节数。
+	 * @return
+	 */
+	public int getQueuedBytes()
+	{
+		return queuedBytes;
+	}
+	
+	/**
+	 * 收到本客户端的一个数据报（由所属会话表在socket的IO线程中调用）。
+	 * 默认实现是将其放入队列，并在已注册到worker线程时触发pipeline读取。
+	 * 
+	 * @param buffer 数据报内容，调用本方法后其所有权即交给了本Channel
+	 */
+	protected void datagramReceived(ByteBuf buffer)
+	{
+		if (addBuffer(buffer) && isRegistered()) 
+			read();
 	}
 
 	/**
@@ -110,7 +374,8 @@ public class MBUDPChannel extends AbstractChannel
 	@Override
 	protected void doBeginRead() throws Exception
 	{
-		if (reading)
+		// 迁移到其它worker线程的过程中（见 migrateTo() ），原线程上残留的读任务不再读取，留待注册到新线程后再读
+		if (reading || !isRegistered() || !eventLoop().inEventLoop())
 			return;
 		
 		reading = true;
@@ -118,7 +383,7 @@ public class MBUDPChannel extends AbstractChannel
 		try 
 		{
 			ByteBuf buffer = null;
-			while ((buffer = buffers.poll()) != null) 
+			while ((buffer = pollBuffer()) != null) 
 			{
 				pipeline().fireChannelRead(buffer);
 			}
@@ -130,56 +395,27 @@ public class MBUDPChannel extends AbstractChannel
 		}
 	}
 
+	/**
+	 * 将出站数据报交给所属会话表的待写出队列，由socket的IO线程批量写出（见 MBUDPSessionTable.write() ）。
+	 */
 	@Override
 	protected void doWrite(ChannelOutboundBuffer buffer) throws Exception 
 	{
-		final RecyclableArrayList list = RecyclableArrayList.newInstance();
-		boolean freeList = true;
-		
-		try 
+		ByteBuf buf = null;
+		int budget = packingBudget;
+		while ((buf = (ByteBuf) buffer.current()) != null) 
 		{
-			ByteBuf buf = null;
-			while ((buf = (ByteBuf) buffer.current()) != null) 
-			{
-				list.add(buf.retain());
-				buffer.remove();
-			}
-			
-			freeList = false;
-		} 
-		finally 
-		{
-			if (freeList)
-			{
-				for (Object obj : list) 
-				{
-					ReferenceCountUtil.safeRelease(obj);
-				}
-				
-				list.recycle();
-			}
+			if (budget > 0)
+				sessionTable.writePackable(buf.retain(), remote, budget);
+			else
+				sessionTable.write(buf.retain(), remote);
+			buffer.remove();
 		}
 		
-		serverchannel.eventLoop().execute(new Runnable() {
-			@Override
-			public void run() 
-			{
-				try 
-				{
-					for (Object buf : list) 
-					{
-						serverchannel.unsafe()
-							.write(new DatagramPacket((ByteBuf) buf, remote), voidPromise());
-					}
-					
-					serverchannel.unsafe().flush();
-				} 
-				finally 
-				{
-					list.recycle();
-				}
-			}
-		});
+		if (budget > 0)
+			sessionTable.flushPackable();
+		else
+			sessionTable.flush();
 	}
 
 	@Override
@@ -197,7 +433,16 @@ public class MBUDPChannel extends AbstractChannel
 	@Override
 	protected SocketAddress localAddress0()
 	{
-		return serverchannel.localAddress0();
+		return serverchannel.localAddress();
+	}
+
+	/**
+	 * 客户端地址会因 {@link #rebind(InetSocketAddress)} 而改变，故不使用父类缓存的地址，直接返回当前地址。
+	 */
+	@Override
+	public InetSocketAddress remoteAddress()
+	{
+		return remote;
 	}
 
 	@Override
@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * MBUDPChunkTransfer.java at 2026-10-18 07:18:23, code by Jack Jiang.
+ */
+package net.nettime.mobileimsdk.server.netty;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * 一个客户端会话的分片传输状态（分片帧格式见 MBUDPChunkedFrames ）。
+ * 
+ * 发送时（见 send() ），超过分片大小的数据帧被切分为若干分片依次写出，完整数据帧随后在本对象中保留一段时间，
+ * 以便对端请求重传时只补发缺失的分片。
+ * 
+ * 接收时（见 received() ），各数据帧的分片在本对象的重组缓冲中拼接，收齐后交回调用者按普通数据帧处理；收到末片时
+ * 若仍有缺失，或超过重传间隔仍未收到新的分片，即向对端发出重传请求，多次请求仍未收齐则放弃该数据帧。
+ * 重组缓冲（含各重组状态自身的开销）及发送保留缓冲的总字节数、同时重组的数据帧个数均有上限，以免单个客户端占用过多内存。
+ * 
+ * 重传请求不会比重传间隔更频繁，每个重传请求也不会大于该数据帧已收到的字节数，首个收到的分片就是末片的数据帧则
+ * 从不请求重传，以免伪造的分片把本服务端变成流量放大器。
+ * 
+ * 本类是线程安全的：发送可能发生在任意线程，接收及重传定时任务则在会话的worker线程中。
+ */
+public class MBUDPChunkTransfer
+{
+	private static Logger logger = LoggerFactory.getLogger(MBUDPChunkTransfer.class); 
+	
+	/** 每个数据帧最多的分片个数 **/
+	public final static int MAX_CHUNK_COUNT = 256;
+	/** 接收方最多发出重传请求的次数，超过后放弃重组 **/
+	public final static int MAX_NACK_RETRIES = 3;
+	/** 每个会话同时重组的数据帧个数上限 **/
+	public final static int MAX_INFLIGHT_REASSEMBLIES = 8;
+	/** 记录最近重组完成的数据帧编号的个数（用于忽略重传造成的迟到分片） **/
+	private final static int RECENT_COMPLETED_COUNT = 16;
+	
+	/** 每个分片的最大负载字节数 **/
+	private final int chunkSize;
+	/** 重组缓冲（及发送保留缓冲）的最大总字节数 **/
+	private final int maxBufferBytes;
+	/** 重传间隔（单位：毫秒） **/
+	private final long retransmitIntervalMillis;
+	
+	private int nextMsgId = ThreadLocalRandom.current().nextInt();
+	/** 已发送、保留以备重传的数据帧（按发送先后排列） **/
+	private final LinkedHashMap<Integer, Outbound> sent = new LinkedHashMap<Integer, Outbound>();
+	private int sentBytes = 0;
+	/** 每个重组状态自身占用的大致字节数（另加每个分片引用8字节，计入重组缓冲的用量） **/
+	private final static int INBOUND_OVERHEAD = 96;
+	/** 每个已收到分片的byte[]自身的大致开销字节数（计入重组缓冲的用量） **/
+	private final static int PART_OVERHEAD = 16;
+	
+	/** 正在重组的数据帧 **/
+	private final HashMap<Integer, Inbound> receiving = new HashMap<Integer, Inbound>();
+	private int receivingBytes = 0;
+	private final int[] recentCompleted = new int[RECENT_COMPLETED_COUNT];
+	private int recentCompletedSize = 0;
+	private int recentCompletedNext = 0;
+	private boolean closed = false;
+	
+	/**
+	 * 构造方法。
+	 * 
+	 * @param chunkSize 每个分片的最大负载字节数
+	 * @param maxBufferBytes 重组缓冲及发送保留缓冲各自的最大总字节数
+	 * @param retransmitIntervalMillis 重传间隔（单位：毫秒）
+	 */
+	public MBUDPChunkTransfer(int chunkSize, int maxBufferBytes, long retransmitIntervalMillis)
+	{
+		this.chunkSize = chunkSize;
+		this.maxBufferBytes = maxBufferBytes;
+		this.retransmitIntervalMillis = retransmitIntervalMillis;
+	}
+	
+	/**
+	 * 将数据帧分片写出。
+	 * 
+	 * @param session
+	 * @param frame 完整的数据帧，调用本方法后其所有权即交给了本对象
+	 * @return 最后一个分片的写出结果
+	 */
+	public ChannelFuture send(Channel session, ByteBuf frame)
+	{
+		int count = MBUDPChunkedFrames.chunkCount(frame.readableBytes(), chunkSize);
+		if (count > MAX_CHUNK_COUNT)
+		{
+			frame.release();
+			return session.newFailedFuture(new IllegalArgumentException(
+					"数据帧过大，无法分片发送：length="+frame.readableBytes()+", chunkSize="+chunkSize));
+		}
+		
+		int msgId;
+		synchronized (this)
+		{
+			msgId = nextMsgId++;
+		}
+		for (int i = 0; i < count - 1; i++)
+			session.write(MBUDPChunkedFrames.encodeData(session.alloc(), msgId, frame, i, chunkSize), session.voidPromise());
+		ChannelFuture future = session.writeAndFlush(MBUDPChunkedFrames.encodeData(session.alloc(), msgId, frame, count - 1, chunkSize));
+		
+		keepForRetransmit(msgId, frame);
+		return future;
+	}
+	
+	/**
+	 * 处理收到的一个分片帧。
+	 * 
+	 * @param session
+	 * @param chunk 分片帧（不会被释放，也不会被保留）
+	 * @return 收齐后重组出的完整数据帧（调用者负责释放），未收齐或不是数据分片时返回null
+	 * @throws IllegalArgumentException 格式不合法时
+	 */
+	public ByteBuf received(Channel session, ByteBuf chunk)
+	{
+		ByteBuf in = chunk.duplicate();
+		if (in.readableBytes() < 6 || in.readByte() != MBUDPChunkedFrames.MAGIC)
+			throw new IllegalArgumentException("不是合法的分片帧");
+		byte kind = in.readByte();
+		int msgId = in.readInt();
+		
+		if (kind == MBUDPChunkedFrames.KIND_NACK)
+		{
+			retransmit(session, msgId, in);
+			return null;
+		}
+		if (kind != MBUDPChunkedFrames.KIND_DATA)
+			throw new IllegalArgumentException("未知的分片帧类型：kind="+kind);
+		
+		int count = MBUDPChunkedFrames.readVarint(in);
+		int index = MBUDPChunkedFrames.readVarint(in);
+		if (count <= 0 || count > MAX_CHUNK_COUNT || index < 0 || index >= count)
+			throw new IllegalArgumentException("分片序号不合法：index="+index+", count="+count);
+		
+		return dataReceived(session, msgId, count, index, in, chunk.readableBytes());
+	}
+	
+	/**
+	 * 会话关闭时调用，释放全部缓冲。
+	 */
+	public synchronized void release()
+	{
+		closed = true;
+		for (Outbound o : sent.values())
+			o.frame.release();
+		sent.clear();
+		sentBytes = 0;
+		for (Inbound i : receiving.values())
+			i.cancel();
+		receiving.clear();
+		receivingBytes = 0;
+	}
+	
+	private synchronized ByteBuf dataReceived(Channel session, int msgId, int count, int index, ByteBuf payload, int datagramLength)
+	{
+		if (closed || isRecentCompleted(msgId))
+			return null;
+		
+		// 空分片不携带任何数据，只可能是伪造的（用来廉价地创建重组状态）
+		int length = payload.readableBytes();
+		if (length == 0)
+			return null;
+		
+		Inbound inbound = receiving.get(msgId);
+		if (inbound == null)
+		{
+			int overhead = INBOUND_OVERHEAD + 8 * count;
+			if (receiving.size() >= MAX_INFLIGHT_REASSEMBLIES || receivingBytes + overhead + PART_OVERHEAD + length > maxBufferBytes)
+			{
+				logger.warn("[IMCORE-netty] 客户端"+session.remoteAddress()+"同时重组的数据帧过多（"+receiving.size()
+						+"个，"+receivingBytes+"字节），丢弃数据帧msgId="+msgId+"的分片。");
+				return null;
+			}
+			inbound = new Inbound(msgId, count, index == count - 1);
+			receiving.put(msgId, inbound);
+			receivingBytes += overhead;
+			inbound.bytes = overhead;
+			inbound.schedule(session);
+		}
+		else if (inbound.count != count)
+		{
+			logger.warn("[IMCORE-netty] 客户端"+session.remoteAddress()+"的数据帧msgId="+msgId+"分片总数前后不一致，放弃其重组。");
+			discard(inbound);
+			return null;
+		}
+		if (inbound.parts[index] != null)
+			return null;
+		
+		if (receivingBytes + PART_OVERHEAD + length > maxBufferBytes)
+		{
+			logger.warn("[IMCORE-netty] 客户端"+session.remoteAddress()+"的分片重组缓冲已满（"+receivingBytes
+					+"字节），放弃数据帧msgId="+msgId+"的重组。");
+			discard(inbound);
+			return null;
+		}
+		
+		byte[] part = new byte[length];
+		payload.readBytes(part);
+		inbound.parts[index] = part;
+		inbound.received++;
+		inbound.payloadBytes += length;
+		inbound.bytes += PART_OVERHEAD + length;
+		inbound.datagramBytes += datagramLength;
+		inbound.progressed = true;
+		receivingBytes += PART_OVERHEAD + length;
+		
+		if (inbound.received == count)
+		{
+			discard(inbound);
+			addRecentCompleted(msgId);
+			
+			ByteBuf frame = session.alloc().buffer(inbound.payloadBytes);
+			for (byte[] p : inbound.parts)
+				frame.writeBytes(p);
+			return frame;
+		}
+		// 末片已到而仍有缺失，多半是中间的分片丢了，无需等到重传间隔结束即可请求重传
+		if (index == count - 1)
+			nack(session, inbound);
+		return null;
+	}
+	
+	private synchronized void retransmit(Channel session, int msgId, ByteBuf missing)
+	{
+		Outbound outbound = sent.get(msgId);
+		if (outbound == null)
+		{
+			logger.debug("[IMCORE-netty] 客户端"+session.remoteAddress()+"请求重传的数据帧msgId="+msgId+"已不在保留缓冲中，忽略。");
+			return;
+		}
+		
+		int count = MBUDPChunkedFrames.chunkCount(outbound.frame.readableBytes(), chunkSize);
+		while (missing.isReadable())
+		{
+			int index = MBUDPChunkedFrames.readVarint(missing);
+			if (index >= 0 && index < count)
+				session.write(MBUDPChunkedFrames.encodeData(session.alloc(), msgId, outbound.frame, index, chunkSize), session.voidPromise());
+		}
+		session.flush();
+	}
+	
+	private synchronized void keepForRetransmit(int msgId, ByteBuf frame)
+	{
+		int length = frame.readableBytes();
+		if (closed || length > maxBufferBytes)
+		{
+			frame.release();
+			return;
+		}
+		
+		long now = System.nanoTime();
+		long retainNanos = TimeUnit.MILLISECONDS.toNanos(retransmitIntervalMillis * (MAX_NACK_RETRIES + 2));
+		Iterator<Outbound> it = sent.values().iterator();
+		while (it.hasNext())
+		{
+			Outbound o = it.next();
+			if (sentBytes + length <= maxBufferBytes && now - o.sentTime < retainNanos)
+				break;
+			it.remove();
+			sentBytes -= o.frame.readableBytes();
+			o.frame.release();
+		}
+		
+		sent.put(msgId, new Outbound(frame, now));
+		sentBytes += length;
+	}
+	
+	private synchronized void checkTimeout(Channel session, Inbound inbound)
+	{
+		if (closed || receiving.get(inbound.msgId) != inbound)
+			return;
+		
+		if (inbound.progressed)
+		{
+			inbound.progressed = false;
+		}
+		else if (inbound.nacks >= MAX_NACK_RETRIES || inbound.startedWithLast)
+		{
+			logger.debug("[IMCORE-netty] 客户端"+session.remoteAddress()+"的数据帧msgId="+inbound.msgId+"多次请求重传仍未收齐（"
+					+inbound.received+"/"+inbound.count+"），放弃重组。");
+			discard(inbound);
+			return;
+		}
+		else
+		{
+			nack(session, inbound);
+		}
+		inbound.schedule(session);
+	}
+	
+	private void nack(Channel session, Inbound inbound)
+	{
+		// 首个收到的分片就是末片的数据帧不请求重传（正常的发送方总是按序发出分片的），重传请求也不比重传间隔更频繁
+		long now = System.nanoTime();
+		if (inbound.startedWithLast 
+				|| (inbound.lastNackTime != 0 && now - inbound.lastNackTime < TimeUnit.MILLISECONDS.toNanos(retransmitIntervalMillis)))
+			return;
+		
+		// 重传请求（每个序号最多2字节）不大于已收到的分片字节数，缺失的序号过多时先请求前面的一部分
+		int max = Math.max(1, (inbound.datagramBytes - 6) / 2);
+		int[] missing = new int[Math.min(inbound.count - inbound.received, max)];
+		int n = 0;
+		for (int i = 0; i < inbound.count && n < missing.length; i++)
+		{
+			if (inbound.parts[i] == null)
+				missing[n++] = i;
+		}
+		inbound.nacks++;
+		inbound.lastNackTime = now;
+		session.writeAndFlush(MBUDPChunkedFrames.encodeNack(session.alloc(), inbound.msgId, missing, n), session.voidPromise());
+	}
+	
+	private void discard(Inbound inbound)
+	{
+		inbound.cancel();
+		receiving.remove(inbound.msgId);
+		receivingBytes -= inbound.bytes;
+	}
+	
+	private boolean isRecentCompleted(int msgId)
+	{
+		for (int i = 0; i < recentCompletedSize; i++)
+		{
+			if (recentCompleted[i] == msgId)
+				return true;
+		}
+		return false;
+	}
+	
+	private void addRecentCompleted(int msgId)
+	{
+		recentCompleted[recentCompletedNext] = msgId;
+		recentCompletedNext = (recentCompletedNext + 1) % RECENT_COMPLETED_COUNT;
+		if (recentCompletedSize < RECENT_COMPLETED_COUNT)
+			recentCompletedSize++;
+	}
+	
+	private static final class Outbound
+	{
+		final ByteBuf frame;
+		final long sentTime;
+		
+		Outbound(ByteBuf frame, long sentTime)
+		{
+			this.frame = frame;
+			this.sentTime = sentTime;
+		}
+	}
+	
+	private final class Inbound
+	{
+		final int msgId;
+		final int count;
+		final byte[][] parts;
+		/** 首个收到的分片是否就是末片 **/
+		final boolean startedWithLast;
+		int received = 0;
+		/** 已收到的负载字节数 **/
+		int payloadBytes = 0;
+		/** 计入重组缓冲用量的字节数（含开销） **/
+		int bytes = 0;
+		/** 已收到的分片帧的总字节数 **/
+		int datagramBytes = 0;
+		int nacks = 0;
+		long lastNackTime = 0;
+		/** 上次检查以来是否收到了新的分片 **/
+		boolean progressed = false;
+		ScheduledFuture<?> timeout = null;
+		
+		Inbound(int msgId, int count, boolean startedWithLast)
+		{
+			this.msgId = msgId;
+			this.count = count;
+			this.parts = new byte[count][];
+			this.startedWithLast = startedWithLast;
+		}
+		
+		void schedule(final Channel session)
+		{
+			timeout = session.eventLoop().schedule(new Runnable() {
+				@Override
+				public void run() {
+					checkTimeout(session, Inbound.this);
+				}
+			}, retransmitIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+		
+		void cancel()
+		{
+			if (timeout != null)
+				timeout.cancel(false);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * MBUDPChunkedFrames.java at 2026-10-18 07:17:33, code by Jack Jiang.
+ */
+package net.nettime.mobileimsdk.server.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * 分片帧：超过单个数据报大小的数据帧（JSON或二进制格式均可）被切分为若干分片发送，由接收方重组（见 MBUDPChunkTransfer ）。
+ * 
+ * 格式如下：
+ * <pre>
+ *   magic        1字节，固定为 0xB3（与JSON帧、二进制帧0xB1及打包帧0xB2均不同，因而可按首字节区分）
+ *   kind         1字节：0 = 数据分片，1 = 重传请求
+ *   msgId        4字节，发送方为每个被分片的数据帧分配的编号
+ *   数据分片：
+ *     count      varint，分片总数
+ *     index      varint，本分片的序号（从0开始）
+ *     payload    其余字节，原数据帧的第index段
+ *   重传请求（接收方在超时仍未收齐时发出，只请求缺失的分片，即选择性重传）：
+ *     index*     若干个varint，缺失分片的序号
+ * </pre>
+ */
+public class MBUDPChunkedFrames
+{
+	/** 分片帧的首字节（魔数） **/
+	public final static byte MAGIC = (byte) 0xB3;
+	
+	/** 数据分片 **/
+	public final static byte KIND_DATA = 0;
+	/** 重传请求 **/
+	public final static byte KIND_NACK = 1;
+	
+	/** 分片头部的最大字节数 **/
+	public final static int MAX_HEADER_LENGTH = 1 + 1 + 4 + 5 + 5;
+	
+	/**
+	 * 判断一个数据帧是否为分片帧（不移动读索引）。
+	 * @param frame
+	 * @return
+	 */
+	public static boolean isChunk(ByteBuf frame)
+	{
+		return frame.isReadable() && frame.getByte(frame.readerIndex()) == MAGIC;
+	}
+	
+	/**
+	 * 返回按给定分片大小切分一个数据帧所需的分片个数。
+	 * @param frameLength
+	 * @param chunkSize 每个分片的最大负载字节数
+	 * @return
+	 */
+	public static int chunkCount(int frameLength, int chunkSize)
+	{
+		return (frameLength + chunkSize - 1) / chunkSize;
+	}
+	
+	/**
+	 * 编码数据帧的第index个分片（不移动frame的读索引）。
+	 * 
+	 * @param alloc
+	 * @param msgId
+	 * @param frame 被分片的完整数据帧
+	 * @param index 分片序号
+	 * @param chunkSize 每个分片的最大负载字节数
+	 * @return 新分配的分片帧
+	 */
+	public static ByteBuf encodeData(ByteBufAllocator alloc, int msgId, ByteBuf frame, int index, int chunkSize)
+	{
+		int count = chunkCount(frame.readableBytes(), chunkSize);
+		int offset = index * chunkSize;
+		int length = Math.min(chunkSize, frame.readableBytes() - offset);
+		
+		ByteBuf chunk = alloc.directBuffer(MAX_HEADER_LENGTH + length);
+		chunk.writeByte(MAGIC);
+		chunk.writeByte(KIND_DATA);
+		chunk.writeInt(msgId);
+		writeVarint(chunk, count);
+		writeVarint(chunk, index);
+		chunk.writeBytes(frame, frame.readerIndex() + offset, length);
+		return chunk;
+	}
+	
+	/**
+	 * 编码重传请求。
+	 * 
+	 * @param alloc
+	 * @param msgId
+	 * @param missing 缺失分片的序号
+	 * @param n missing中有效的个数
+	 * @return 新分配的分片帧
+	 */
+	public static ByteBuf encodeNack(ByteBufAllocator alloc, int msgId, int[] missing, int n)
+	{
+		ByteBuf nack = alloc.directBuffer(1 + 1 + 4 + 5 * n);
+		nack.writeByte(MAGIC);
+		nack.writeByte(KIND_NACK);
+		nack.writeInt(msgId);
+		for (int i = 0; i < n; i++)
+			writeVarint(nack, missing[i]);
+		return nack;
+	}
+	
+	static void writeVarint(ByteBuf dst, int v)
+	{
+		while ((v & ~0x7F) != 0)
+		{
+			dst.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		dst.writeByte(v);
+	}
+	
+	/**
+	 * 从src的读索引处读取一个varint（读索引随之移动）。
+	 * @throws IllegalArgumentException 格式不合法时
+	 */
+	static int readVarint(ByteBuf src)
+	{
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7)
+		{
+			if (!src.isReadable())
+				break;
+			byte b = src.readByte();
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+		}
+		throw new IllegalArgumentException("分片帧的varint格式不合法");
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * MBUDPEpollServerHandler.java at 2026-10-18 06:30:29, code by Jack Jiang.
+ */
+package net.nettime.mobileimsdk.server.netty;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
+
+/**
+ * 基于netty native epoll传输（EpollDatagramChannel）的UDP服务端处理器，作用等同于NIO版的 MBUDPServerChannel：
+ * 按来源地址将收到的数据报分派给对应客户端的 MBUDPChannel，并在新客户端到来时将其注册到worker线程组。
+ *
+ * 本类主要用于SO_REUSEPORT多socket模式：同一端口上绑定的每个EpollDatagramChannel都各自持有一个本类的实例，
+ * 从而拥有独立的会话表和IO线程。因为持有会话表，本类不可被多个channel共享。
+ */
+public class MBUDPEpollServerHandler extends ChannelInboundHandlerAdapter
+{
+	private static Logger logger = LoggerFactory.getLogger(MBUDPEpollServerHandler.class); 
+	
+	/** 客户端MBUDPChannel要注册到的worker线程组 **/
+	private final EventLoopGroup childGroup;
+	/** 客户端MBUDPChannel的handler（同ServerBootstrap的childHandler） **/
+	private final ChannelHandler childHandler;
+	
+	/** 会话表的配置项（见 MBUDPServerChannelConfig ） **/
+	private final Map<ChannelOption<?>, Object> options;
+	/** 是否按数据报的实际大小复制后再分派（见 MBUDPServerChannelConfig.RECEIVE_COPY ） **/
+	private final boolean receiveCopy;
+	
+	private MBUDPSessionTable sessionTable = null;
+	
+	/**
+	 * 构造方法。
+	 * 
+	 * @param childGroup 客户端MBUDPChannel要注册到的worker线程组
+	 * @param childHandler 客户端MBUDPChannel的handler
+	 * @param options MBUDPServerChannelConfig 中定义的配置项（如 IDLE_TIMEOUT、SESSION_GATE 等），即NIO版经由
+	 * Bootstrap.option() 设置的同一组配置项，为null表示全部使用默认值。其中 RECEIVE_COPY 为true时按数据报的实际大小
+	 * 复制后再分派：epoll传输按最大数据报长度分配的接收缓冲将随即释放回内存池（IO线程的本地缓存）以供下次收取复用，
+	 * 而不会在数据报等待处理期间一直被占用
+	 */
+	public MBUDPEpollServerHandler(EventLoopGroup childGroup, ChannelHandler childHandler, Map<ChannelOption<?>, Object> options)
+	{
+		this.childGroup = childGroup;
+		this.childHandler = childHandler;
+		this.options = (options != null ? new LinkedHashMap<ChannelOption<?>, Object>(options) 
+				: Collections.<ChannelOption<?>, Object>emptyMap());
+		this.receiveCopy = Boolean.TRUE.equals(this.options.get(MBUDPServerChannelConfig.RECEIVE_COPY));
+	}
+	
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception
+	{
+		sessionTable = new MBUDPSessionTable(ctx.channel());
+		for (Map.Entry<ChannelOption<?>, Object> e : options.entrySet())
+		{
+			if (e.getKey() != MBUDPServerChannelConfig.RECEIVE_COPY && !sessionTable.setOption(e.getKey(), e.getValue()))
+				logger.warn("[IMCORE-netty]未知的配置项："+e.getKey());
+		}
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+	{
+		DatagramPacket packet = (DatagramPacket) msg;
+		ByteBuf content = packet.content();
+		if (receiveCopy)
+		{
+			int length = content.readableBytes();
+			try
+			{
+				content = ctx.alloc().directBuffer(length, length).writeBytes(content);
+			}
+			finally
+			{
+				packet.release();
+			}
+		}
+		
+		// 数据报内容的所有权直接交给对应的MBUDPChannel，因而此处无需release
+		final MBUDPChannel udpchannel = sessionTable.dispatch(packet.sender(), content);
+		if (udpchannel != null)
+		{
+			udpchannel.pipeline().addLast(childHandler);
+			childGroup.register(udpchannel).addListener(new ChannelFutureListener() {
+				@Override
+				public void operationComplete(ChannelFuture future) throws Exception
+				{
+					if (!future.isSuccess())
+					{
+						logger.warn("[IMCORE-netty] 客户端"+udpchannel.remoteAddress()+"的Channel注册失败：", future.cause());
+						udpchannel.unsafe().closeForcibly();
+					}
+				}
+			});
+		}
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception
+	{
+		sessionTable.closeAll();
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception
+	{
+		logger.warn("[IMCORE-netty] UDP socket"+ctx.channel().localAddress()+"读取数据时出错：", cause);
+	}
+	
+	public MBUDPSessionTable getSessionTable()
+	{
+		return sessionTable;
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * MBUDPFlatChannel.java at 2026-10-18 06:40:08, code by Jack Jiang.
+ */
+package net.nettime.mobileimsdk.server.netty;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.EventLoop;
+
+/**
+ * 轻量会话模式（见 ServerLauncher.flatSessionEnabled ）下的客户端会话。
+ *
+ * 为了与框架及上层应用现有的API（以Channel作为会话对象）保持兼容，本类仍是一个Channel，但与普通的 MBUDPChannel 相比：
+ * 不注册到worker线程组、不创建独立的config、pipeline中不添加任何handler（因而也没有各自的空闲超时定时任务），
+ * 收到的数据报放入队列后由本会话自身作为任务投递到所属worker线程（队列非空期间只投递一次），再交由共享的
+ * MBUDPFlatSessionHandler 处理，空闲超时则同普通模式一样由所属会话表统一检查。
+ *
+ * 会话创建时即固定分配一个worker线程，本类的 eventLoop() 返回该线程，因而write、close等出站操作的线程模型与普通模式一致。
+ * run-to-completion模式下所属线程即会话表所属socket的IO线程，数据报在该线程中收到后直接处理，不再排队投递。
+ * 因为从未注册，会话关闭时netty不会触发channelInactive事件，改由 doClose() 直接通知共享处理器。
+ */
+public class MBUDPFlatChannel extends MBUDPChannel implements Runnable
+{
+	private static final AtomicIntegerFieldUpdater<MBUDPFlatChannel> DRAIN_SCHEDULED_UPDATER = 
+			AtomicIntegerFieldUpdater.newUpdater(MBUDPFlatChannel.class, "drainScheduled");
+	
+	private final MBUDPFlatSessionHandler handler;
+	/** 本会话所属的worker线程（登陆后可能被迁移，见 migrateTo() ） **/
+	private volatile EventLoop worker;
+	
+	/** 是否已将本会话投递到worker线程等待处理队列中的数据报（1表示是） **/
+	private volatile int drainScheduled = 0;
+	
+	protected MBUDPFlatChannel(MBUDPSessionTable sessionTable, InetSocketAddress remote
+			, ChannelConfig sharedConfig, MBUDPFlatSessionHandler handler)
+	{
+		super(sessionTable, remote, sharedConfig);
+		this.handler = handler;
+		this.worker = handler.nextWorker(sessionTable);
+	}
+	
+	@Override
+	public EventLoop eventLoop()
+	{
+		return worker;
+	}
+	
+	@Override
+	protected void datagramReceived(ByteBuf buffer)
+	{
+		if (addBuffer(buffer) && DRAIN_SCHEDULED_UPDATER.compareAndSet(this, 0, 1))
+			handler.scheduleDrain(this);
+	}
+	
+	/**
+	 * 在所属worker线程中依次处理队列中的数据报。
+	 */
+	@Override
+	public void run()
+	{
+		EventLoop current = worker;
+		for (;;)
+		{
+			ByteBuf buffer;
+			while ((buffer = pollBuffer()) != null)
+			{
+				handler.datagramReceived(this, buffer);
+				
+				// 已迁移到其它worker线程（如登陆后按用户id固定），余下的数据报交由新线程处理
+				if (worker != current)
+				{
+					handler.scheduleDrain(this);
+					return;
+				}
+			}
+			
+			// 队列已取空才复位，保证同一时刻只有一个线程在处理本会话的数据报；复位后须再检查一次，以免漏掉期间新放入的数据报
+			drainScheduled = 0;
+			if (!hasBuffers() || !DRAIN_SCHEDULED_UPDATER.compareAndSet(this, 0, 1))
+				return;
+		}
+	}
+	
+	/**
+	 * 轻量会话并未注册，只需更换所属的worker线程，正在进行的处理过程（见 run() ）会在处理完当前数据报后转交给新线程。
+	 */
+	@Override
+	public void migrateTo(EventLoop target)
+	{
+		worker = target;
+	}
+	
+	@Override
+	protected boolean isCloseable()
+	{
+		return true;
+	}
+	
+	@Override
+	protected void doBeginRead() throws Exception
+	{
+		// 数据报不经pipeline读取，无需处理
+	}
+	
+	@Override
+	protected void doClose() throws Exception 
+	{
+		boolean wasOpen = isOpen();
+		super.doClose();
+		if (wasOpen)
+			handler.sessionClosed(this);
+	}
+	
+	void fireSessionCreated()
+	{
+		handler.sessionCreated(this);
+	}
+}
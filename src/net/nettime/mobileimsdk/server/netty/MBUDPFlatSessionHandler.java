@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * MBUDPFlatSessionHandler.java at 2026-10-18 06:40:00, code by Jack Jiang.
+ */
+package net.nettime.mobileimsdk.server.netty;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import net.openmob.mobileimsdk.server.ServerCoreHandler;
+
+/**
+ * 轻量会话模式（见 ServerLauncher.flatSessionEnabled ）下所有客户端会话共用的处理器，作用等同于普通模式下
+ * 每个客户端pipeline中的 MBUDPClientInboundHandler 。
+ *
+ * 数据报不再经过各会话的pipeline，而是在该会话固定所属的worker线程上从其队列中依次取出，直接交给本类执行
+ * ServerCoreHandler 的业务处理，因而同一客户端的数据报仍严格按收到的顺序串行处理。
+ * 会话的空闲超时则与普通模式一样由会话表统一检查（见 MBUDPIdleReaper ）。
+ *
+ * 本类是线程安全的，可被多个socket的会话表共享。
+ */
+public class MBUDPFlatSessionHandler
+{
+	private static Logger logger = LoggerFactory.getLogger(MBUDPFlatSessionHandler.class); 
+	
+	private final ServerCoreHandler serverCoreHandler;
+	/** 执行会话业务逻辑的worker线程组 **/
+	private final EventLoopGroup workerGroup;
+	/** 是否为run-to-completion模式：会话的业务逻辑直接在其所属socket的IO线程中执行，不再交给worker线程组 **/
+	private final boolean runToCompletion;
+	
+	/**
+	 * 构造方法。
+	 * 
+	 * @param serverCoreHandler 框架核心处理器
+	 * @param workerGroup 执行会话业务逻辑的worker线程组
+	 */
+	public MBUDPFlatSessionHandler(ServerCoreHandler serverCoreHandler, EventLoopGroup workerGroup)
+	{
+		this(serverCoreHandler, workerGroup, false);
+	}
+	
+	/**
+	 * 构造方法。
+	 * 
+	 * @param serverCoreHandler 框架核心处理器
+	 * @param workerGroup 执行会话业务逻辑的worker线程组（run-to-completion模式下不使用）
+	 * @param runToCompletion true表示run-to-completion模式：每个socket的IO线程独占其会话，数据报的收取、解码、业务处理
+	 * 及应答写出都在该线程中完成，没有任何线程间的交接。此时业务回调中不可有阻塞操作，否则将直接阻塞该socket的收发
+	 */
+	public MBUDPFlatSessionHandler(ServerCoreHandler serverCoreHandler, EventLoopGroup workerGroup, boolean runToCompletion)
+	{
+		this.serverCoreHandler = serverCoreHandler;
+		this.workerGroup = workerGroup;
+		this.runToCompletion = runToCompletion;
+	}
+	
+	public boolean isRunToCompletion()
+	{
+		return runToCompletion;
+	}
+	
+	/**
+	 * 为新会话选择其所属的worker线程。
+	 * @param sessionTable 会话所属的会话表
+	 * @return
+	 */
+	EventLoop nextWorker(MBUDPSessionTable sessionTable)
+	{
+		return runToCompletion ? sessionTable.socketChannel.eventLoop() : workerGroup.next();
+	}
+	
+	void sessionCreated(final MBUDPFlatChannel session)
+	{
+		execute(session, new Runnable() {
+			@Override
+			public void run() 
+			{
+				try
+				{
+					serverCoreHandler.sessionCreated(session);
+				}
+				catch (Throwable e)
+				{
+					exceptionCaught(session, e);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * 将会话投递到其所属的worker线程，以处理其队列中的数据报（见 MBUDPFlatChannel.run() ）。
+	 * @param session
+	 */
+	void scheduleDrain(MBUDPFlatChannel session)
+	{
+		execute(session, session);
+	}
+	
+	/**
+	 * 处理会话的一个数据报（已在该会话所属的worker线程中）。
+	 * @param session
+	 * @param buffer
+	 */
+	void datagramReceived(MBUDPFlatChannel session, ByteBuf buffer)
+	{
+		try
+		{
+			serverCoreHandler.messageReceived(session, buffer);
+		}
+		catch (Throwable e)
+		{
+			exceptionCaught(session, e);
+		}
+		finally
+		{
+			buffer.release();
+		}
+	}
+	
+	/**
+	 * 会话关闭时调用（已在该会话所属的worker线程中）。
+	 * @param session
+	 */
+	void sessionClosed(MBUDPFlatChannel session)
+	{
+		try
+		{
+			serverCoreHandler.sessionClosed(session);
+		}
+		catch (Throwable e)
+		{
+			logger.warn("[IMCORE-netty] 处理客户端"+session.remoteAddress()+"的会话关闭事件时出错：", e);
+		}
+	}
+	
+	private void exceptionCaught(MBUDPFlatChannel session, Throwable e)
+	{
+		try
+		{
+			serverCoreHandler.exceptionCaught(session, e);
+		}
+		catch (Exception e2)
+		{
+			logger.warn(e2.getMessage(), e);
+		}
+	}
+	
+	private void execute(MBUDPFlatChannel session, Runnable task)
+	{
+		// 已在会话所属线程中（run-to-completion模式）时直接执行，以免多一次任务投递，也保证事件按发生的先后处理
+		if (session.eventLoop().inEventLoop())
+		{
+			task.run();
+			return;
+		}
+		
+		try
+		{
+			session.eventLoop().execute(task);
+		}
+		catch (RejectedExecutionException e)
+		{
+			// worker线程组已关闭（服务端正在停止），队列中的数据报随会话关闭一并释放
+			logger.debug("[IMCORE-netty] worker线程已关闭，客户端"+session.remoteAddress()+"的事件被忽略。");
+			session.unsafe().closeForcibly();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * MBUDPIdleReaper.java at 2026-10-18 06:58:14, code by Jack Jiang.
+ */
+package net.nettime.mobileimsdk.server.netty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 客户端会话的空闲超时回收器：一个粗粒度的哈希时间轮，由所属的 MBUDPSessionTable 在socket的IO线程中定时推进。
+ *
+ * 取代了原先每个会话pipeline中的 ReadTimeoutHandler（每个会话各自持有一个定时任务，且每收到一次数据都要重新调度）。
+ * 会话收到数据时只需记下当前刻度（见 touch() ），不涉及任何定时任务；时间轮每推进一格，就批量检查落在该格中的会话：
+ * 已超时的直接关闭（从而触发 ServerCoreHandler.sessionClosed() ），期间又收到过数据的则按新的到期刻度移到对应的格中。
+ * 因而每个会话每个超时周期最多被检查一次，开销只与会话数有关，而与收到的数据报个数无关。
+ *
+ * 超时精度为一个刻度（即 MBUDPSessionTable.IDLE_CHECK_INTERVAL ）。
+ * 注意：本类不是线程安全的，只允许在所属socket channel的eventLoop线程中使用。
+ */
+public class MBUDPIdleReaper
+{
+	/** 会话从最近一次收到数据起到被关闭所需经过的刻度数 **/
+	private final long timeoutTicks;
+	/** 时间轮的各格，每格存放到期刻度落在该格的会话 **/
+	private final List<List<MBUDPChannel>> wheel;
+	/** 时间轮已推进到的刻度 **/
+	private long currentTick = 0;
+	
+	/**
+	 * 构造方法。
+	 * 
+	 * @param idleTimeoutNanos 会话的空闲超时时长（单位：纳秒）
+	 * @param tickNanos 时间轮每个刻度的时长（单位：纳秒），即调用 expire() 的间隔
+	 */
+	public MBUDPIdleReaper(long idleTimeoutNanos, long tickNanos)
+	{
+		// 会话记下的刻度最多比实际时间落后一个刻度，因而多加一个刻度，保证会话至少空闲满超时时长后才会被关闭
+		this.timeoutTicks = Math.max(1, (idleTimeoutNanos + tickNanos - 1) / tickNanos) + 1;
+		
+		// 格数比超时刻度数多1，保证任一会话的到期刻度都不会落在当前正在检查的格中
+		int size = (int) timeoutTicks + 1;
+		this.wheel = new ArrayList<List<MBUDPChannel>>(size);
+		for (int i = 0; i < size; i++)
+			wheel.add(new ArrayList<MBUDPChannel>());
+	}
+	
+	/**
+	 * 将一个新会话加入时间轮。
+	 * @param channel
+	 */
+	void add(MBUDPChannel channel)
+	{
+		channel.lastActiveTick = currentTick;
+		schedule(channel, currentTick + timeoutTicks);
+	}
+	
+	/**
+	 * 记录会话收到了数据（只记下当前刻度，会话在时间轮中的位置留待其到期检查时再调整）。
+	 * @param channel
+	 */
+	void touch(MBUDPChannel channel)
+	{
+		channel.lastActiveTick = currentTick;
+	}
+	
+	/**
+	 * 将时间轮推进一个刻度，并关闭该刻度到期的空闲会话（每隔一个刻度的时长调用一次）。
+	 * 
+	 * @return 本次关闭的会话数
+	 */
+	int expire()
+	{
+		currentTick++;
+		List<MBUDPChannel> bucket = wheel.get((int) (currentTick % wheel.size()));
+		int closed = 0;
+		for (int i = 0, n = bucket.size(); i < n; i++)
+		{
+			MBUDPChannel channel = bucket.get(i);
+			// 已关闭的会话直接从时间轮中丢弃
+			if (!channel.isOpen())
+				continue;
+			
+			long deadline = channel.lastActiveTick + timeoutTicks;
+			if (deadline > currentTick)
+				schedule(channel, deadline);
+			// 尚未注册到（或正在迁移到另一个）worker线程的会话暂不能关闭，下个刻度再试
+			else if (!channel.isCloseable())
+				schedule(channel, currentTick + 1);
+			else
+			{
+				channel.close();
+				closed++;
+			}
+		}
+		bucket.clear();
+		return closed;
+	}
+	
+	/**
+	 * 清空时间轮（socket关闭时调用）。
+	 */
+	void clear()
+	{
+		for (List<MBUDPChannel> bucket : wheel)
+			bucket.clear();
+	}
+	
+	private void schedule(MBUDPChannel channel, long deadlineTick)
+	{
+		wheel.get((int) (deadlineTick % wheel.size())).add(channel);
+	}
+}
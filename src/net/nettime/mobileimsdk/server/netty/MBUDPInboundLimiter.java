@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * MBUDPInboundLimiter.java at 2026-10-18 06:49:48, code by Jack Jiang.
+ */
+package net.nettime.mobileimsdk.server.netty;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 收到但尚未被worker线程处理的入站数据报的排队限额。
+ *
+ * 每个客户端会话的待处理数据报都排在各自的队列中（见 MBUDPChannel ），本类同时限制单个会话及整个服务端
+ * 的排队字节数（按数据报所占ByteBuf的容量计），超限时按 OverloadPolicy 处理，以免个别处理缓慢或恶意
+ * 狂发数据的客户端耗尽direct内存。各策略丢弃的数据报个数可通过本类的get方法取得，以便监控。
+ *
+ * 本类是线程安全的，一个服务端的所有socket共用同一个实例。
+ */
+public class MBUDPInboundLimiter
+{
+	/**
+	 * 入站排队超限时的处理策略。
+	 */
+	public enum OverloadPolicy
+	{
+		/** 丢弃刚收到的数据报 **/
+		DROP_NEWEST,
+		/** 丢弃该会话队列中最早的非QoS数据报（没有可丢弃的非QoS数据报时丢弃刚收到的数据报） **/
+		DROP_OLDEST_NON_QOS,
+		/** 丢弃刚收到的数据报并关闭该会话（其队列中的数据报一并丢弃） **/
+		CLOSE_SESSION
+	}
+	
+	/** 单个会话的最大排队字节数 **/
+	private final int maxBytesPerSession;
+	/** 整个服务端的最大排队字节数 **/
+	private final long maxBytes;
+	private final OverloadPolicy policy;
+	
+	/** 当前整个服务端的排队字节数 **/
+	private final AtomicLong queuedBytes = new AtomicLong();
+	
+	private final AtomicLong droppedNewestCount = new AtomicLong();
+	private final AtomicLong droppedOldestCount = new AtomicLong();
+	private final AtomicLong droppedOnCloseCount = new AtomicLong();
+	private final AtomicLong closedSessionCount = new AtomicLong();
+	
+	/**
+	 * 构造方法。
+	 * 
+	 * @param maxBytesPerSession 单个会话的最大排队字节数
+	 * @param maxBytes 整个服务端的最大排队字节数
+	 * @param policy 超限时的处理策略
+	 */
+	public MBUDPInboundLimiter(int maxBytesPerSession, long maxBytes, OverloadPolicy policy)
+	{
+		this.maxBytesPerSession = maxBytesPerSession;
+		this.maxBytes = maxBytes;
+		this.policy = policy;
+	}
+	
+	/**
+	 * 会话再排入size字节后是否超出限额（单个会话或整个服务端）。
+	 * 
+	 * @param sessionQueuedBytes 该会话当前的排队字节数
+	 * @param size 将要排入的字节数
+	 * @return
+	 */
+	boolean isOverloaded(int sessionQueuedBytes, int size)
+	{
+		return sessionQueuedBytes + size > maxBytesPerSession || isGlobalOverloaded(size);
+	}
+	
+	boolean isGlobalOverloaded(int size)
+	{
+		return queuedBytes.get() + size > maxBytes;
+	}
+	
+	void acquire(int size)
+	{
+		queuedBytes.addAndGet(size);
+	}
+	
+	void release(int size)
+	{
+		queuedBytes.addAndGet(-size);
+	}
+	
+	void countDroppedNewest()
+	{
+		droppedNewestCount.incrementAndGet();
+	}
+	
+	void countDroppedOldest()
+	{
+		droppedOldestCount.incrementAndGet();
+	}
+	
+	void countDroppedOnClose(int count)
+	{
+		droppedOnCloseCount.addAndGet(count);
+	}
+	
+	void countClosedSession()
+	{
+		closedSessionCount.incrementAndGet();
+	}
+	
+	public OverloadPolicy getPolicy()
+	{
+		return policy;
+	}
+	
+	public int getMaxBytesPerSession()
+	{
+		return maxBytesPerSession;
+	}
+
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	/**
+	 * 返回当前整个服务端排队中的入站字节数。
+	 * @return
+	 */
+	public long getQueuedBytes()
+	{
+		return queuedBytes.get();
+	}
+	
+	/**
+	 * 返回因DROP_NEWEST策略（或DROP_OLDEST_NON_QOS策略下无可丢弃的旧数据报）而丢弃的数据报个数。
+	 * @return
+	 */
+	public long getDroppedNewestCount()
+	{
+		return droppedNewestCount.get();
+	}
+	
+	/**
+	 * 返回因DROP_OLDEST_NON_QOS策略而丢弃的排队中的非QoS数据报个数。
+	 * @return
+	 */
+	public long getDroppedOldestCount()
+	{
+		return droppedOldestCount.get();
+	}
+	
+	/**
+	 * 返回因CLOSE_SESSION策略而丢弃的数据报个数（含触发关闭的数据报及被关闭会话队列中的数据报）。
+	 * @return
+	 */
+	public long getDroppedOnCloseCount()
+	{
+		return droppedOnCloseCount.get();
+	}
+	
+	/**
+	 * 返回因CLOSE_SESSION策略而关闭的会话个数。
+	 * @return
+	 */
+	public long getClosedSessionCount()
+	{
+		return closedSessionCount.get();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "{policy:"+policy+", queuedBytes:"+getQueuedBytes()+", droppedNewest:"+getDroppedNewestCount()
+				+", droppedOldest:"+getDroppedOldestCount()+", droppedOnClose:"+getDroppedOnCloseCount()
+				+", closedSessions:"+getClosedSessionCount()+"}";
+	}
+}
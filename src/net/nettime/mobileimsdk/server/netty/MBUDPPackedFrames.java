@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * MBUDPPackedFrames.java at 2026-10-18 07:09:05, code by Jack Jiang.
+ */
+package net.nettime.mobileimsdk.server.netty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 打包帧：将发给同一客户端的多个数据帧（JSON或二进制格式均可）合并到一个UDP数据报中，以减少数据报个数及系统调用次数。
+ * 
+ * 格式如下：
+ * <pre>
+ *   magic        1字节，固定为 0xB2（与JSON帧的'{'及二进制帧的0xB1均不同，因而可按首字节区分）
+ *   frame*       若干个：varint长度前缀 + 一个完整的数据帧
+ * </pre>
+ * 
+ * 客户端以打包帧发送其登陆包即表示支持打包帧（见 ServerLauncher.packingEnabled ），此后服务端会将一个打包窗口内
+ * 发给该客户端的多个数据帧打包发送（见 MBUDPSessionTable ），只有一个数据帧时仍按原格式单独发送。
+ */
+public class MBUDPPackedFrames
+{
+	/** 打包帧的首字节（魔数） **/
+	public final static byte MAGIC = (byte) 0xB2;
+	
+	/**
+	 * 判断一个数据报是否为打包帧（不移动读索引）。
+	 * @param datagram
+	 * @return
+	 */
+	public static boolean isPacked(ByteBuf datagram)
+	{
+		return datagram.isReadable() && datagram.getByte(datagram.readerIndex()) == MAGIC;
+	}
+	
+	/**
+	 * 拆包（不移动读索引）。
+	 * 
+	 * @param datagram 打包帧
+	 * @return 各数据帧（与datagram共享内存，仅在datagram被释放之前有效）
+	 * @throws IllegalArgumentException 格式不合法时
+	 */
+	public static List<ByteBuf> unpack(ByteBuf datagram)
+	{
+		List<ByteBuf> frames = new ArrayList<ByteBuf>(4);
+		int index = datagram.readerIndex() + 1, end = datagram.writerIndex();
+		while (index < end)
+		{
+			int length = 0;
+			for (int shift = 0; ; shift += 7)
+			{
+				if (index >= end || shift > 21)
+					throw new IllegalArgumentException("打包帧的长度前缀不合法");
+				byte b = datagram.getByte(index++);
+				length |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					break;
+			}
+			if (length > end - index)
+				throw new IllegalArgumentException("打包帧的长度越界：length="+length);
+			
+			frames.add(datagram.slice(index, length));
+			index += length;
+		}
+		return frames;
+	}
+	
+	/**
+	 * 返回打包帧中的第一个数据帧（不移动读索引），用于在不完整拆包的情况下查看其类型等信息。
+	 * 
+	 * @param datagram 打包帧
+	 * @return 与datagram共享内存的第一个数据帧，格式不合法时返回null
+	 */
+	public static ByteBuf firstFrame(ByteBuf datagram)
+	{
+		try
+		{
+			List<ByteBuf> frames = unpack(datagram);
+			return frames.isEmpty() ? null : frames.get(0);
+		}
+		catch (IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * 返回一个数据帧放入打包帧后所占的字节数（含长度前缀）。
+	 * @param frameLength
+	 * @return
+	 */
+	static int packedLength(int frameLength)
+	{
+		int len = 1;
+		for (int v = frameLength; (v & ~0x7F) != 0; v >>>= 7)
+			len++;
+		return len + frameLength;
+	}
+	
+	/**
+	 * 将一个数据帧（连同长度前缀）追加写入打包帧。
+	 * @param dst
+	 * @param frame
+	 */
+	static void writeFrame(ByteBuf dst, ByteBuf frame)
+	{
+		int v = frame.readableBytes();
+		while ((v & ~0x7F) != 0)
+		{
+			dst.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		dst.writeByte(v);
+		dst.writeBytes(frame, frame.readerIndex(), frame.readableBytes());
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * MBUDPReceiveBufferTuner.java at 2026-10-18 07:23:08, code by Jack Jiang.
+ */
+package net.nettime.mobileimsdk.server.netty;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+
+/**
+ * UDP socket接收缓冲区（SO_RCVBUF）自动调整器。
+ * 
+ * 定时读取Linux内核的UDP接收缓冲溢出丢包计数（/proc/net/snmp 中的Udp RcvbufErrors，以及 /proc/net/snmp6 中的
+ * Udp6RcvbufErrors），一旦发现新增丢包，即将各服务端socket的接收缓冲区调大（至少加倍，不超过设定的上限），以免只能靠修改
+ * 系统参数后重启来解决内核侧的丢包。
+ * 
+ * 注意：该计数是整台主机的，同机其它UDP程序的丢包也会引起调整；实际生效的大小还受系统参数net.core.rmem_max限制，
+ * 已达该限制而仍有丢包时将打印警告，提示调大该参数。非Linux系统（无 /proc/net/snmp ）下本类不会启动。
+ */
+public class MBUDPReceiveBufferTuner
+{
+	private static Logger logger = LoggerFactory.getLogger(MBUDPReceiveBufferTuner.class); 
+	
+	/** 丢包计数的检查间隔（单位：毫秒） **/
+	public final static int CHECK_INTERVAL = 5000;
+	
+	private final static File SNMP = new File("/proc/net/snmp");
+	private final static File SNMP6 = new File("/proc/net/snmp6");
+	
+	/** 要调整的服务端socket channel **/
+	private final List<Channel> channels;
+	/** 接收缓冲区的上限（单位：字节） **/
+	private final int maxReceiveBufferSize;
+	
+	private Timer timer = null;
+	/** 上次检查时的丢包计数，-1表示尚未读取过 **/
+	private long lastDrops = -1;
+	/** 是否已打印过受限于net.core.rmem_max的警告（只打印一次） **/
+	private boolean cappedWarned = false;
+	
+	/**
+	 * 构造方法。
+	 * 
+	 * @param channels 要调整的服务端socket channel
+	 * @param maxReceiveBufferSize 接收缓冲区的上限（单位：字节）
+	 */
+	public MBUDPReceiveBufferTuner(Collection<Channel> channels, int maxReceiveBufferSize)
+	{
+		this.channels = new ArrayList<Channel>(channels);
+		this.maxReceiveBufferSize = maxReceiveBufferSize;
+	}
+	
+	/**
+	 * 当前系统是否支持（即能否读取到内核的UDP丢包计数）。
+	 * @return
+	 */
+	public static boolean isSupported()
+	{
+		return SNMP.canRead();
+	}
+	
+	public synchronized MBUDPReceiveBufferTuner startup()
+	{
+		stop();
+		if (!isSupported())
+		{
+			logger.info("[IMCORE-netty] 无法读取"+SNMP+"，接收缓冲区自动调整未启动.");
+			return this;
+		}
+		
+		lastDrops = -1;
+		timer = new Timer("MBUDPReceiveBufferTuner", true);
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				check();
+			}
+		}, 0, CHECK_INTERVAL);
+		return this;
+	}
+	
+	public synchronized void stop()
+	{
+		if (timer != null)
+		{
+			timer.cancel();
+			timer = null;
+		}
+	}
+	
+	/**
+	 * 检查一次丢包计数，有新增丢包时即调大接收缓冲区。
+	 */
+	synchronized void check()
+	{
+		long drops;
+		try
+		{
+			drops = readReceiveBufferErrors();
+		}
+		catch (Exception e)
+		{
+			logger.warn("[IMCORE-netty] 读取内核UDP丢包计数失败，接收缓冲区自动调整已停止：", e);
+			stop();
+			return;
+		}
+		
+		long delta = (lastDrops < 0 ? 0 : drops - lastDrops);
+		lastDrops = drops;
+		if (delta > 0)
+			grow(delta);
+	}
+	
+	private void grow(long delta)
+	{
+		boolean grown = false;
+		int size = 0;
+		for (Channel channel : channels)
+		{
+			if (!channel.isOpen())
+				continue;
+			
+			int current = channel.config().getOption(ChannelOption.SO_RCVBUF);
+			if (current >= maxReceiveBufferSize)
+			{
+				size = current;
+				continue;
+			}
+			
+			channel.config().setOption(ChannelOption.SO_RCVBUF, (int) Math.min(current * 2L, maxReceiveBufferSize));
+			size = channel.config().getOption(ChannelOption.SO_RCVBUF);
+			grown |= (size > current);
+		}
+		
+		if (grown)
+		{
+			logger.info("[IMCORE-netty] 内核UDP接收缓冲区新增溢出丢包"+delta+"个，接收缓冲区已调大至"+size+"字节.");
+		}
+		else if (size < maxReceiveBufferSize && !cappedWarned)
+		{
+			cappedWarned = true;
+			logger.warn("[IMCORE-netty] 内核UDP接收缓冲区新增溢出丢包"+delta+"个，但接收缓冲区已受限于系统参数net.core.rmem_max（当前"
+					+size+"字节）无法再调大，请适当调大该参数（sysctl -w net.core.rmem_max=...）.");
+		}
+	}
+	
+	/**
+	 * 读取内核的UDP（含IPv6）接收缓冲溢出丢包计数。
+	 */
+	static long readReceiveBufferErrors() throws IOException
+	{
+		long drops = 0;
+		
+		// /proc/net/snmp中每个协议占两行：第一行为字段名，第二行为对应的值
+		List<String> lines = readLines(SNMP);
+		for (int i = 0; i + 1 < lines.size(); i++)
+		{
+			if (!lines.get(i).startsWith("Udp: ") || !lines.get(i + 1).startsWith("Udp: "))
+				continue;
+			String[] names = lines.get(i).split("\\s+");
+			String[] values = lines.get(i + 1).split("\\s+");
+			for (int j = 1; j < names.length && j < values.length; j++)
+			{
+				if ("RcvbufErrors".equals(names[j]))
+					drops += Long.parseLong(values[j]);
+			}
+			break;
+		}
+		
+		// /proc/net/snmp6中每行一个“字段名 值”
+		if (SNMP6.canRead())
+		{
+			for (String line : readLines(SNMP6))
+			{
+				if (line.startsWith("Udp6RcvbufErrors"))
+					drops += Long.parseLong(line.substring("Udp6RcvbufErrors".length()).trim());
+			}
+		}
+		return drops;
+	}
+	
+	private static List<String> readLines(File file) throws IOException
+	{
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "US-ASCII"));
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+				lines.add(line);
+		}
+		finally
+		{
+			reader.close();
+		}
+		return lines;
+	}
+}
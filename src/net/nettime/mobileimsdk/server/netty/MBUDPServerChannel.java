@@ -24,20 +24,19 @@ import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.spi.SelectorProvider;
-import java.util.LinkedHashMap;
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelMetadata;
 import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.MaxMessagesRecvByteBufAllocator;
 import io.netty.channel.RecvByteBufAllocator;
 import io.netty.channel.nio.AbstractNioMessageChannel;
 import io.netty.channel.socket.DatagramPacket;
 import io.netty.channel.socket.ServerSocketChannel;
 import io.netty.channel.socket.ServerSocketChannelConfig;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.util.internal.PlatformDependent;
 
 /**
  * 仿照TCP协议的NioServerSocketChannel实现的专用于UDP的服务端Channel实现类。
@@ -49,7 +48,11 @@ public class MBUDPServerChannel extends AbstractNioMessageChannel implements Ser
 	
 	private final MBUDPServerChannelConfig config;
 	
-	protected final LinkedHashMap<InetSocketAddress, MBUDPChannel> channels = new LinkedHashMap<InetSocketAddress, MBUDPChannel>();
+	/** 本socket对应的客户端会话表 **/
+	protected final MBUDPSessionTable sessionTable = new MBUDPSessionTable(this);
+	
+	/** RECEIVE_COPY模式下收取数据报所用的可复用临时缓冲区（只在IO线程中使用） **/
+	private ByteBuf receiveScratch = null;
 
 	public MBUDPServerChannel() throws IOException
 	{
@@ -69,6 +72,15 @@ public class MBUDPServerChannel extends AbstractNioMessageChannel implements Ser
 		this.config = new MBUDPServerChannelConfig(this, datagramChannel);
 	}
 	
+	/**
+	 * 返回本socket对应的客户端会话表。
+	 * @return
+	 */
+	public MBUDPSessionTable getSessionTable()
+	{
+		return sessionTable;
+	}
+	
 	@Override
 	public InetSocketAddress localAddress()
 	{
@@ -133,8 +145,13 @@ public class MBUDPServerChannel extends AbstractNioMessageChannel implements Ser
 	@Override
 	protected void doClose() throws Exception
 	{
-		for (MBUDPChannel channel : channels.values())
-			channel.close();
+		sessionTable.closeAll();
+		
+		if (receiveScratch != null)
+		{
+			receiveScratch.release();
+			receiveScratch = null;
+		}
 		
 		javaChannel().close();
 	}
@@ -146,18 +163,17 @@ public class MBUDPServerChannel extends AbstractNioMessageChannel implements Ser
 	 */
 	public void removeChannel(final Channel channel) 
 	{
-		eventLoop().submit(new Runnable() {
-			@Override
-			public void run() {
-				InetSocketAddress remote = (InetSocketAddress) channel.remoteAddress();
-				if (channels.get(remote) == channel) 
-				{
-					channels.remove(remote);
-				}
-			}
-		});
+		sessionTable.removeChannel(channel);
 	}
 
+	/**
+	 * 每次读就绪时连续收取多个数据报（最多 maxMessagesPerRead 个，见 ServerLauncher.RECEIVE_BATCH_SIZE ），
+	 * 直到socket中已无数据为止，再统一交由pipeline注册其中的新客户端Channel。
+	 * 开启了 MBUDPServerChannelConfig.RECEIVE_COPY 时，数据报先收取到可复用的临时缓冲区，再按实际大小复制后分派。
+	 *
+	 * 注意：AbstractNioMessageChannel的读循环在本方法返回0时即停止，而发往已有客户端的数据报并不产生新Channel，
+	 * 若每次只收一个数据报，则每个数据报都要经历一次完整的select唤醒，因而必须在本方法内部循环收取。
+	 */
 	@Override
 	protected int doReadMessages(List<Object> list) throws Exception
 	{
@@ -166,70 +182,78 @@ public class MBUDPServerChannel extends AbstractNioMessageChannel implements Ser
 		//unsafe     在netty中一个很核心的组件，封装了java底层的socket操作，作为连接netty和java 底层nio的重要桥梁。
 		//获取一个自适应的缓冲区分配器
 		RecvByteBufAllocator.Handle allocatorHandle = unsafe().recvBufAllocHandle();
-		//分配一个缓冲
-		ByteBuf buffer = allocatorHandle.allocate(config.getAllocator());
-		//将通道中的数据读取到缓冲中
-		allocatorHandle.attemptedBytesRead(buffer.writableBytes());
-
-		boolean freeBuffer = true;
-		try 
+		int batchSize = getReceiveBatchSize();
+		int newChannels = 0;
+		
+		boolean receiveCopy = config.isReceiveCopy();
+		if (receiveCopy && receiveScratch == null)
+			receiveScratch = config.getAllocator().directBuffer(allocatorHandle.guess());
+		
+		for (int i = 0; i < batchSize; i++)
 		{
-			// 将ByteBuf中可写的ByteBuffer取出
-			ByteBuffer nioBuffer = buffer.internalNioBuffer(buffer.writerIndex(), buffer.writableBytes());
-			//获取链接信息之前ByteBuffer写入位置
-			// ======｜=============|
-			//       ^			    ^
-			//     position     capacity
-			int nioPos = nioBuffer.position();
-
-			// 获取客户端链接ip和port
-			// ======｜====IP/port===|===========|
-			//       ^		      	 ^	         ^
-			//     nioPos	     position     capacity
-			InetSocketAddress inetSocketAddress = (InetSocketAddress) javaChannel.receive(nioBuffer);
-			if (inetSocketAddress == null) 
-				return 0;
-
-			//设置上次读取操作已读取的字节。可用于增加以读取的字节数
-			allocatorHandle.lastBytesRead(nioBuffer.position() - nioPos);
-			buffer.writerIndex(buffer.writerIndex() + allocatorHandle.lastBytesRead());
-			
-			// 分配新channel或使用现有channel并将消息推送到该channel
-			MBUDPChannel udpchannel = channels.get(inetSocketAddress);
-			//如果address对应channel为空，则创建新channel
-			if ((udpchannel == null) || !udpchannel.isOpen()) 
+			//分配一个缓冲（RECEIVE_COPY模式下使用可复用的临时缓冲区）
+			ByteBuf buffer = (receiveCopy ? receiveScratch.clear() : allocatorHandle.allocate(config.getAllocator()));
+			//将通道中的数据读取到缓冲中
+			allocatorHandle.attemptedBytesRead(buffer.writableBytes());
+	
+			boolean freeBuffer = true;
+			try 
 			{
-				udpchannel = new MBUDPChannel(this, inetSocketAddress);
-				channels.put(inetSocketAddress, udpchannel);
-				list.add(udpchannel);
+				// 将ByteBuf中可写的ByteBuffer取出
+				ByteBuffer nioBuffer = buffer.internalNioBuffer(buffer.writerIndex(), buffer.writableBytes());
+				//获取链接信息之前ByteBuffer写入位置
+				// ======｜=============|
+				//       ^			    ^
+				//     position     capacity
+				int nioPos = nioBuffer.position();
+	
+				// 获取客户端链接ip和port
+				// ======｜====IP/port===|===========|
+				//       ^		      	 ^	         ^
+				//     nioPos	     position     capacity
+				InetSocketAddress inetSocketAddress = (InetSocketAddress) javaChannel.receive(nioBuffer);
+				// socket中已无数据
+				if (inetSocketAddress == null) 
+					break;
+	
+				//设置上次读取操作已读取的字节。可用于增加以读取的字节数
+				allocatorHandle.lastBytesRead(nioBuffer.position() - nioPos);
+				buffer.writerIndex(buffer.writerIndex() + allocatorHandle.lastBytesRead());
 				
-				udpchannel.addBuffer(buffer);
-				freeBuffer = false;
+				// 按数据报的实际大小复制一份，临时缓冲区留待下次复用
+				if (receiveCopy)
+				{
+					int length = buffer.readableBytes();
+					buffer = config.getAllocator().directBuffer(length, length).writeBytes(buffer);
+				}
 				
-				return 1;
+				// 分配新channel或使用现有channel并将消息推送到该channel
+				MBUDPChannel udpchannel = sessionTable.dispatch(inetSocketAddress, buffer);
+				freeBuffer = false;
+				//如果是新建的channel，则交给ServerBootstrapAcceptor注册到worker线程
+				if (udpchannel != null) 
+				{
+					list.add(udpchannel);
+					newChannels++;
+				} 
 			} 
-			else
+			finally
 			{
-				udpchannel.addBuffer(buffer);
-				freeBuffer = false;
-				
-				if (udpchannel.isRegistered()) 
-					udpchannel.read();
-				
-				return 0;
+				if (freeBuffer && buffer != receiveScratch)
+					// 如果属于无用buffer，需要即使回收
+					buffer.release();
 			}
-		} 
-		catch (Throwable t) 
-		{
-			PlatformDependent.throwException(t);
-			return -1;
-		} 
-		finally
-		{
-			if (freeBuffer)
-				// 如果属于无用buffer，需要即使回收
-				buffer.release();
 		}
+		
+		return newChannels;
+	}
+	
+	private int getReceiveBatchSize()
+	{
+		RecvByteBufAllocator allocator = config.getRecvByteBufAllocator();
+		if (allocator instanceof MaxMessagesRecvByteBufAllocator)
+			return Math.max(1, ((MaxMessagesRecvByteBufAllocator) allocator).maxMessagesPerRead());
+		return 1;
 	}
 
 	@Override
@@ -242,10 +266,12 @@ public class MBUDPServerChannel extends AbstractNioMessageChannel implements Ser
 		if (readableBytes == 0) 
 			return true;
 		
-		ByteBuffer internalNioBuffer = byteBuf.internalNioBuffer(
-				byteBuf.readerIndex(), readableBytes);
+		// 转发的数据帧可能是由多段组成的CompositeByteBuf（见 LazyProtocal ），此时须合并为一个ByteBuffer再发送
+		ByteBuffer nioBuffer = (byteBuf.nioBufferCount() == 1 
+				? byteBuf.internalNioBuffer(byteBuf.readerIndex(), readableBytes) 
+				: byteBuf.nioBuffer(byteBuf.readerIndex(), readableBytes));
 		
-		return javaChannel().send(internalNioBuffer, recipient) > 0;
+		return javaChannel().send(nioBuffer, recipient) > 0;
 	}
 
 	@Override
@@ -16,18 +16,24 @@
  */
 package net.nettime.mobileimsdk.server.netty;
 
+import java.io.IOException;
 import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.nio.channels.DatagramChannel;
+import java.util.Map;
 
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelException;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultChannelConfig;
 import io.netty.channel.FixedRecvByteBufAllocator;
 import io.netty.channel.MessageSizeEstimator;
 import io.netty.channel.RecvByteBufAllocator;
 import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.socket.ServerSocketChannelConfig;
+import io.netty.channel.unix.UnixChannelOption;
 
 /**
  * 仿照TCP的“形”实现了一个UDP的服务端Channel配置类。
@@ -37,8 +43,34 @@ import io.netty.channel.socket.ServerSocketChannelConfig;
  */
 public class MBUDPServerChannelConfig extends DefaultChannelConfig implements ServerSocketChannelConfig 
 {
+	/** 轻量会话模式下的共享处理器（见 MBUDPFlatSessionHandler ），不设置即为普通模式 **/
+	public static final ChannelOption<MBUDPFlatSessionHandler> FLAT_SESSION_HANDLER = ChannelOption.valueOf("MB_FLAT_SESSION_HANDLER");
+	
+	/** 
+	 * 是否先将数据报收取到一个可复用的临时缓冲区，再按实际大小复制到新分配的ByteBuf中（见 MBUDPServerChannel.doReadMessages() ），
+	 * 以免每个待处理的数据报都占用一个按最大数据报长度分配的ByteBuf。默认false。
+	 */
+	public static final ChannelOption<Boolean> RECEIVE_COPY = ChannelOption.valueOf("MB_RECEIVE_COPY");
+	
+	/** 入站数据报排队限额（见 MBUDPInboundLimiter ），不设置即为不限制 **/
+	public static final ChannelOption<MBUDPInboundLimiter> INBOUND_LIMITER = ChannelOption.valueOf("MB_INBOUND_LIMITER");
+	
+	/** 会话准入控制（见 MBUDPSessionGate ），不设置即为任何数据报都可创建会话 **/
+	public static final ChannelOption<MBUDPSessionGate> SESSION_GATE = ChannelOption.valueOf("MB_SESSION_GATE");
+	
+	/** 客户端会话的空闲超时时长（单位：秒，见 MBUDPIdleReaper ），不设置或<=0即为不检查 **/
+	public static final ChannelOption<Integer> IDLE_TIMEOUT = ChannelOption.valueOf("MB_IDLE_TIMEOUT");
+	
+	/** 打包窗口时长（单位：微秒，见 MBUDPSessionTable.setPackingWindow() ），不设置或<=0即为不等待 **/
+	public static final ChannelOption<Integer> PACKING_WINDOW = ChannelOption.valueOf("MB_PACKING_WINDOW");
+	
+	/** JDK的SO_REUSEPORT选项（Java 9起才提供，低版本时为null） **/
+	private static final SocketOption<Boolean> SO_REUSEPORT = lookupReusePortOption();
+	
 	/** UDP NIO channel通道实例 **/
 	private final DatagramChannel datagramChannel;
+	
+	private volatile boolean receiveCopy = false;
 
 	public MBUDPServerChannelConfig(Channel channel, DatagramChannel datagramChannel) 
 	{
@@ -48,6 +80,229 @@ public class MBUDPServerChannelConfig extends DefaultChannelConfig implements Se
 		setRecvByteBufAllocator(new FixedRecvByteBufAllocator(2048));
 	}
 
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> lookupReusePortOption()
+	{
+		try
+		{
+			return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * 当前运行环境的NIO DatagramChannel是否支持SO_REUSEPORT（需Java 9及以上）。
+	 * @return
+	 */
+	public static boolean isReusePortSupported()
+	{
+		return SO_REUSEPORT != null;
+	}
+
+	@Override
+	public Map<ChannelOption<?>, Object> getOptions()
+	{
+		return getOptions(super.getOptions()
+				, ChannelOption.SO_RCVBUF, ChannelOption.SO_SNDBUF, ChannelOption.SO_REUSEADDR, ChannelOption.IP_TOS);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T getOption(ChannelOption<T> option)
+	{
+		if (option == UnixChannelOption.SO_REUSEPORT)
+			return (T) Boolean.valueOf(isReusePort());
+		if (option == FLAT_SESSION_HANDLER)
+			return (T) getFlatSessionHandler();
+		if (option == RECEIVE_COPY)
+			return (T) Boolean.valueOf(isReceiveCopy());
+		if (option == INBOUND_LIMITER)
+			return (T) getInboundLimiter();
+		if (option == IDLE_TIMEOUT)
+			return (T) Integer.valueOf(getIdleTimeout());
+		if (option == SESSION_GATE)
+			return (T) getSessionGate();
+		if (option == PACKING_WINDOW)
+			return (T) Integer.valueOf(getPackingWindow());
+		if (option == ChannelOption.SO_RCVBUF)
+			return (T) Integer.valueOf(getReceiveBufferSize());
+		if (option == ChannelOption.SO_SNDBUF)
+			return (T) Integer.valueOf(getSendBufferSize());
+		if (option == ChannelOption.SO_REUSEADDR)
+			return (T) Boolean.valueOf(isReuseAddress());
+		if (option == ChannelOption.IP_TOS)
+			return (T) Integer.valueOf(getTrafficClass());
+		return super.getOption(option);
+	}
+
+	@Override
+	public <T> boolean setOption(ChannelOption<T> option, T value)
+	{
+		if (option == UnixChannelOption.SO_REUSEPORT)
+		{
+			setReusePort((Boolean) value);
+			return true;
+		}
+		if (option == RECEIVE_COPY)
+		{
+			setReceiveCopy((Boolean) value);
+			return true;
+		}
+		// 会话表的配置项（FLAT_SESSION_HANDLER、INBOUND_LIMITER等）由会话表自己处理，与epoll版相同
+		if (((MBUDPServerChannel) channel).getSessionTable().setOption(option, value))
+			return true;
+		if (option == ChannelOption.SO_RCVBUF)
+		{
+			setReceiveBufferSize((Integer) value);
+			return true;
+		}
+		if (option == ChannelOption.SO_SNDBUF)
+		{
+			setSendBufferSize((Integer) value);
+			return true;
+		}
+		if (option == ChannelOption.SO_REUSEADDR)
+		{
+			setReuseAddress((Boolean) value);
+			return true;
+		}
+		if (option == ChannelOption.IP_TOS)
+		{
+			setTrafficClass((Integer) value);
+			return true;
+		}
+		return super.setOption(option, value);
+	}
+	
+	public boolean isReceiveCopy()
+	{
+		return receiveCopy;
+	}
+	
+	public ServerSocketChannelConfig setReceiveCopy(boolean receiveCopy)
+	{
+		this.receiveCopy = receiveCopy;
+		return this;
+	}
+	
+	public MBUDPInboundLimiter getInboundLimiter()
+	{
+		return ((MBUDPServerChannel) channel).getSessionTable().getInboundLimiter();
+	}
+	
+	/**
+	 * 设置入站数据报排队限额，必须在bind之前设置。
+	 * @param inboundLimiter
+	 * @return
+	 */
+	public ServerSocketChannelConfig setInboundLimiter(MBUDPInboundLimiter inboundLimiter)
+	{
+		((MBUDPServerChannel) channel).getSessionTable().setInboundLimiter(inboundLimiter);
+		return this;
+	}
+	
+	public int getIdleTimeout()
+	{
+		return ((MBUDPServerChannel) channel).getSessionTable().getIdleTimeout();
+	}
+	
+	/**
+	 * 设置客户端会话的空闲超时时长（单位：秒），必须在bind之前设置。
+	 * @param idleTimeoutSeconds
+	 * @return
+	 */
+	public ServerSocketChannelConfig setIdleTimeout(int idleTimeoutSeconds)
+	{
+		((MBUDPServerChannel) channel).getSessionTable().setIdleTimeout(idleTimeoutSeconds);
+		return this;
+	}
+	
+	public int getPackingWindow()
+	{
+		return (int) ((MBUDPServerChannel) channel).getSessionTable().getPackingWindow();
+	}
+	
+	/**
+	 * 设置打包窗口时长（单位：微秒）。
+	 * @param packingWindowMicros
+	 * @return
+	 */
+	public ServerSocketChannelConfig setPackingWindow(int packingWindowMicros)
+	{
+		((MBUDPServerChannel) channel).getSessionTable().setPackingWindow(packingWindowMicros);
+		return this;
+	}
+	
+	public MBUDPSessionGate getSessionGate()
+	{
+		return ((MBUDPServerChannel) channel).getSessionTable().getSessionGate();
+	}
+	
+	/**
+	 * 设置会话准入控制，必须在bind之前设置。
+	 * @param sessionGate
+	 * @return
+	 */
+	public ServerSocketChannelConfig setSessionGate(MBUDPSessionGate sessionGate)
+	{
+		((MBUDPServerChannel) channel).getSessionTable().setSessionGate(sessionGate);
+		return this;
+	}
+	
+	public MBUDPFlatSessionHandler getFlatSessionHandler()
+	{
+		return ((MBUDPServerChannel) channel).getSessionTable().getFlatSessionHandler();
+	}
+	
+	/**
+	 * 设置轻量会话模式下的共享处理器，必须在bind之前设置。
+	 * @param flatSessionHandler
+	 * @return
+	 */
+	public ServerSocketChannelConfig setFlatSessionHandler(MBUDPFlatSessionHandler flatSessionHandler)
+	{
+		((MBUDPServerChannel) channel).getSessionTable().setFlatSessionHandler(flatSessionHandler);
+		return this;
+	}
+	
+	public boolean isReusePort()
+	{
+		if (SO_REUSEPORT == null)
+			return false;
+		try
+		{
+			return datagramChannel.getOption(SO_REUSEPORT);
+		}
+		catch (IOException ex)
+		{
+			throw new ChannelException(ex);
+		}
+	}
+	
+	/**
+	 * 设置SO_REUSEPORT，以便多个socket同时绑定到同一端口，由内核按来源地址将数据报分散到各socket。
+	 * 必须在bind之前设置。
+	 * @param reusePort
+	 * @return
+	 */
+	public ServerSocketChannelConfig setReusePort(boolean reusePort)
+	{
+		if (SO_REUSEPORT == null)
+			throw new ChannelException("SO_REUSEPORT需要Java 9及以上版本的支持");
+		try
+		{
+			datagramChannel.setOption(SO_REUSEPORT, reusePort);
+		}
+		catch (IOException ex)
+		{
+			throw new ChannelException(ex);
+		}
+		return this;
+	}
+
 	/**
 	 * backlog参数主要用于TCP场景下，是内核为此套接口 排队的最大连接个数，UDP时给1就行了，因为没意义。
 	 * @return
@@ -178,6 +433,66 @@ public class MBUDPServerChannelConfig extends DefaultChannelConfig implements Se
 		return this;
 	}
 
+	public int getSendBufferSize() 
+	{
+		try
+		{
+			return datagramChannel.socket().getSendBufferSize();
+		} 
+		catch (SocketException ex)
+		{
+			throw new ChannelException(ex);
+		}
+	}
+	
+	/**
+	 * 设置socket的发送缓冲区大小（SO_SNDBUF），实际大小受系统参数net.core.wmem_max限制。
+	 * @param size
+	 * @return
+	 */
+	public ServerSocketChannelConfig setSendBufferSize(int size)
+	{
+		try
+		{
+			datagramChannel.socket().setSendBufferSize(size);
+		} 
+		catch (SocketException ex) 
+		{
+			throw new ChannelException(ex);
+		}
+		return this;
+	}
+	
+	public int getTrafficClass() 
+	{
+		try
+		{
+			return datagramChannel.socket().getTrafficClass();
+		} 
+		catch (SocketException ex)
+		{
+			throw new ChannelException(ex);
+		}
+	}
+	
+	/**
+	 * 设置发出数据报的IP头部TOS字段（IP_TOS，即DSCP及ECN），以便网络设备按服务质量区别对待。
+	 * @param trafficClass 0~255
+	 * @return
+	 */
+	public ServerSocketChannelConfig setTrafficClass(int trafficClass)
+	{
+		try
+		{
+			datagramChannel.socket().setTrafficClass(trafficClass);
+		} 
+		catch (SocketException ex) 
+		{
+			throw new ChannelException(ex);
+		}
+		return this;
+	}
+
 	@Override
 	public boolean isReuseAddress()
 	{
@@ -196,7 +511,7 @@ public class MBUDPServerChannelConfig extends DefaultChannelConfig implements Se
 	{
 		try 
 		{
-			datagramChannel.socket().setReuseAddress(true);
+			datagramChannel.socket().setReuseAddress(reuseaddr);
 		} 
 		catch (SocketException ex) 
 		{
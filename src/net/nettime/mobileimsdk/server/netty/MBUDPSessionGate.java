@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * MBUDPSessionGate.java at 2026-10-18 07:02:52, code by Jack Jiang.
+ */
+package net.nettime.mobileimsdk.server.netty;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.buffer.ByteBuf;
+import net.openmob.mobileimsdk.server.protocal.ProtocalType;
+import net.openmob.mobileimsdk.server.utils.ServerToolKits;
+
+/**
+ * 会话准入控制：决定来自一个尚无会话的客户端地址的数据报能否创建会话（见 MBUDPSessionTable.dispatch() ）。
+ *
+ * 默认只有登陆包才会创建会话（MBUDPChannel），其它数据报（含伪造来源地址的洪水包）不分配任何会话状态，
+ * 也不做任何应答，直接在socket的IO线程中丢弃：未经认证的数据报一旦有应答，伪造来源地址的攻击者就能借此向受害者
+ * 反射流量（固定的错误应答包也比最小的请求包大得多，可被用来做UDP反射放大攻击）。客户端在发现长时间收不到
+ * 心跳应答后会自行重新登陆。
+ *
+ * 登陆包在登陆验证通过之前同样无法确认其来源，因而由登陆包创建的会话（及随之而来的登陆验证回调）还受限于
+ * 每个统计窗口内的总数和每个来源IP的个数，超出限额的登陆包按被拒绝处理，以免伪造来源地址的登陆包洪水占满会话表、
+ * 或让应用层的登陆验证不堪重负。未登陆的会话则在登陆失败后、或空闲超时后被回收。
+ *
+ * 本类是线程安全的，可被多个socket的会话表共享。
+ */
+public class MBUDPSessionGate
+{
+	/** 统计窗口的时长（单位：纳秒） **/
+	private final static long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+	
+	/** 每个统计窗口内最多可创建的会话数，<=0表示不限 **/
+	private final int maxSessionsPerWindow;
+	/** 每个统计窗口内同一来源IP最多可创建的会话数，<=0表示不限 **/
+	private final int maxSessionsPerSource;
+	
+	/** 当前统计窗口的起始时间 **/
+	private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+	/** 当前统计窗口内已创建的会话数 **/
+	private final AtomicInteger windowSessions = new AtomicInteger();
+	/** 当前统计窗口内各来源IP已创建的会话数（每个窗口清空一次，其条目数不超过 maxSessionsPerWindow ） **/
+	private final ConcurrentMap<InetAddress, AtomicInteger> sourceSessions = new ConcurrentHashMap<InetAddress, AtomicInteger>();
+	
+	/** 被拒绝创建会话的数据报个数 **/
+	private final AtomicLong rejectedCount = new AtomicLong();
+	/** 其中因超出会话创建限额而被拒绝的登陆包个数 **/
+	private final AtomicLong throttledCount = new AtomicLong();
+	
+	/**
+	 * 构造方法。
+	 * 
+	 * @param maxSessionsPerSecond 每秒最多可创建的会话数，<=0表示不限
+	 * @param maxSessionsPerSourcePerSecond 每秒同一来源IP最多可创建的会话数（同一NAT后面的多个客户端共用一个IP，
+	 * 不宜设得太小），<=0表示不限
+	 */
+	public MBUDPSessionGate(int maxSessionsPerSecond, int maxSessionsPerSourcePerSecond)
+	{
+		this.maxSessionsPerWindow = maxSessionsPerSecond;
+		this.maxSessionsPerSource = maxSessionsPerSourcePerSecond;
+	}
+	
+	/**
+	 * 来自新客户端地址的数据报能否创建会话（在socket的IO线程中调用，不移动读索引）。
+	 * 
+	 * @param remote 数据报的来源地址
+	 * @param datagram
+	 * @return true表示可以创建会话，默认仅未超出会话创建限额的登陆包返回true
+	 */
+	public boolean accept(InetSocketAddress remote, ByteBuf datagram)
+	{
+		return ServerToolKits.peekFrameType(datagram) == ProtocalType.C.FROM_CLIENT_TYPE_OF_LOGIN
+				&& admit(remote.getAddress());
+	}
+	
+	/**
+	 * 按会话创建限额判断来自source的数据报能否创建会话（能创建时即计入限额）。
+	 * 
+	 * @param source 来源IP
+	 * @return false表示已超出限额
+	 */
+	protected boolean admit(InetAddress source)
+	{
+		long now = System.nanoTime();
+		long start = windowStart.get();
+		if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now))
+		{
+			windowSessions.set(0);
+			sourceSessions.clear();
+		}
+		
+		if (maxSessionsPerWindow > 0 && windowSessions.get() >= maxSessionsPerWindow)
+		{
+			throttledCount.incrementAndGet();
+			return false;
+		}
+		
+		if (maxSessionsPerSource > 0)
+		{
+			AtomicInteger count = sourceSessions.get(source);
+			if (count == null)
+			{
+				AtomicInteger created = new AtomicInteger();
+				count = sourceSessions.putIfAbsent(source, created);
+				if (count == null)
+					count = created;
+			}
+			if (count.incrementAndGet() > maxSessionsPerSource)
+			{
+				throttledCount.incrementAndGet();
+				return false;
+			}
+		}
+		
+		windowSessions.incrementAndGet();
+		return true;
+	}
+	
+	/**
+	 * 处理被拒绝的数据报，并返回其无状态应答（在socket的IO线程中调用，不移动读索引）。
+	 * 
+	 * 默认不应答。子类如需应答，应答包不可大于被拒绝的数据报（更大的应答会被 MBUDPSessionTable 直接丢弃），
+	 * 以免被利用来做反射放大攻击。
+	 * 
+	 * @param datagram 被拒绝的数据报
+	 * @return 要发回给客户端的数据报内容（由调用者负责写出），为null表示不应答
+	 */
+	public ByteBuf reject(ByteBuf datagram)
+	{
+		rejectedCount.incrementAndGet();
+		return null;
+	}
+	
+	/**
+	 * 返回被拒绝创建会话的数据报个数。
+	 * @return
+	 */
+	public long getRejectedCount()
+	{
+		return rejectedCount.get();
+	}
+	
+	/**
+	 * 返回因超出会话创建限额而被拒绝的登陆包个数（已计入 getRejectedCount() ）。
+	 * @return
+	 */
+	public long getThrottledCount()
+	{
+		return throttledCount.get();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "MBUDPSessionGate[rejected="+rejectedCount.get()+", throttled="+throttledCount.get()+"]";
+	}
+}
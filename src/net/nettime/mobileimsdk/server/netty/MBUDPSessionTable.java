@@ -0,0 +1,626 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * MBUDPSessionTable.java at 2026-10-18 06:30:07, code by Jack Jiang.
+ */
+package net.nettime.mobileimsdk.server.netty;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.DefaultChannelConfig;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.util.internal.PlatformDependent;
+import net.openmob.mobileimsdk.server.utils.ServerToolKits;
+
+/**
+ * 一个UDP服务端socket所对应的客户端会话表（客户端IP+端口 -> MBUDPChannel）。
+ *
+ * 本类从 MBUDPServerChannel 中抽离出来，以便NIO版的 MBUDPServerChannel 与native epoll版的
+ * MBUDPEpollServerHandler 共用同一套会话分派逻辑。多socket（SO_REUSEPORT）模式下，每个socket
+ * 各自拥有一个独立的会话表实例。
+ *
+ * 设置了 MBUDPFlatSessionHandler 后即为轻量会话模式：新客户端将创建为无需注册的 MBUDPFlatChannel。
+ * 
+ * 来自未知地址、但带有有效会话令牌（见 MBUDPSessionTokens ）的数据报，将被交给令牌所对应的原会话，并将该会话改绑到新地址，
+ * 从而客户端地址改变（如移动网络切换导致NAT重新映射）后无需重新登陆。
+ * 
+ * 设置了 MBUDPSessionGate 后，来自新客户端地址的数据报只有通过其准入检查（默认仅限额内的登陆包）才会创建会话，
+ * 其余的不分配任何会话状态，直接在IO线程中丢弃。
+ * 
+ * 设置了空闲超时时长（见 setIdleTimeout() ）后，不论哪种模式，各会话的空闲超时均由本表的时间轮（见 MBUDPIdleReaper ）
+ * 在socket的IO线程中定时统一检查，而不再为每个会话创建定时任务。
+ *
+ * 各客户端Channel的出站数据报统一放入本表的无锁多生产者单消费者队列（见 write() ），再由socket的IO线程批量取出写出，
+ * 同一时刻最多只有一个待执行的写出任务，以免每次flush都向IO线程投递一个新任务。支持打包帧的客户端（见 MBUDPPackedFrames ），
+ * 其数据帧放入另一个队列（见 writePackable() ），并延迟一个打包窗口（见 setPackingWindow() ）再写出，
+ * 窗口内发给同一客户端的多个数据帧将被合并为一个数据报。
+ *
+ * 注意：本类的方法（removeChannel()、write()、flush()除外）只允许在所属socket channel的eventLoop线程中调用，因而无需加锁。
+ */
+public class MBUDPSessionTable
+{
+	/** 空闲会话的检查间隔，即空闲超时时间轮每个刻度的时长（单位：毫秒） **/
+	public final static int IDLE_CHECK_INTERVAL = 1000;
+	
+	/** IO线程每批最多写出的数据报个数（超出的留待下一批，以免长时间占用IO线程而影响读取） **/
+	public final static int MAX_WRITES_PER_FLUSH = 256;
+	
+	/** 实际收发UDP数据报的socket channel **/
+	protected final Channel socketChannel;
+	
+	/** 待写出的数据报队列（多个worker线程写入，socket的IO线程取出） **/
+	private final Queue<DatagramPacket> outboundQueue = PlatformDependent.newMpscQueue();
+	/** 待打包写出的数据帧队列（多个worker线程写入，socket的IO线程取出） **/
+	private final Queue<PackableFrame> packableQueue = PlatformDependent.newMpscQueue();
+	/** 写出时按客户端地址合并数据帧所用的临时表（只在socket的IO线程中使用） **/
+	private final HashMap<InetSocketAddress, Packer> packers = new HashMap<InetSocketAddress, Packer>();
+	/** 是否已有待执行的写出任务 **/
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flushOutbound();
+		}
+	};
+	/** 是否已有待执行的打包写出任务（打包写出将延迟一个打包窗口，以便合并窗口内陆续写入的数据帧） **/
+	private final AtomicBoolean packingFlushScheduled = new AtomicBoolean(false);
+	private final Runnable packingFlushTask = new Runnable() {
+		@Override
+		public void run() {
+			packingFlushScheduled.set(false);
+			flushOutbound();
+		}
+	};
+	/** 打包窗口时长（单位：微秒），<=0表示不等待 **/
+	private volatile long packingWindowMicros = 0;
+	
+	protected final HashMap<InetSocketAddress, MBUDPChannel> channels = new HashMap<InetSocketAddress, MBUDPChannel>();
+	
+	/** 轻量会话模式下的共享处理器，为null时表示普通模式 **/
+	private MBUDPFlatSessionHandler flatSessionHandler = null;
+	/** 轻量会话模式下所有会话共用的config **/
+	private ChannelConfig flatSessionConfig = null;
+	/** 入站数据报排队限额，为null表示不限制 **/
+	private MBUDPInboundLimiter inboundLimiter = null;
+	/** 会话准入控制，为null表示任何数据报都可创建会话 **/
+	private MBUDPSessionGate sessionGate = null;
+	/** 会话的空闲超时时长（单位：秒），<=0表示不检查 **/
+	private int idleTimeoutSeconds = 0;
+	/** 空闲会话回收时间轮，未设置空闲超时时长时为null **/
+	private MBUDPIdleReaper idleReaper = null;
+	/** 空闲会话的定时检查任务 **/
+	private ScheduledFuture<?> idleCheckFuture = null;
+	
+	public MBUDPSessionTable(Channel socketChannel)
+	{
+		this.socketChannel = socketChannel;
+	}
+	
+	/**
+	 * 返回实际收发UDP数据报的socket channel。
+	 * @return
+	 */
+	public Channel socketChannel()
+	{
+		return socketChannel;
+	}
+
+	/**
+	 * 按 MBUDPServerChannelConfig 中定义的配置项设置本表（须在socket开始收取数据前设置）。
+	 * NIO版（经由 MBUDPServerChannelConfig.setOption() ）和epoll版（见 MBUDPEpollServerHandler ）都通过本方法配置会话表，
+	 * 因而两种传输使用同一组配置项。
+	 * 
+	 * @param option
+	 * @param value
+	 * @return false表示该配置项不是会话表的配置项
+	 */
+	public boolean setOption(ChannelOption<?> option, Object value)
+	{
+		if (option == MBUDPServerChannelConfig.FLAT_SESSION_HANDLER)
+			setFlatSessionHandler((MBUDPFlatSessionHandler) value);
+		else if (option == MBUDPServerChannelConfig.INBOUND_LIMITER)
+			setInboundLimiter((MBUDPInboundLimiter) value);
+		else if (option == MBUDPServerChannelConfig.SESSION_GATE)
+			setSessionGate((MBUDPSessionGate) value);
+		else if (option == MBUDPServerChannelConfig.IDLE_TIMEOUT)
+			setIdleTimeout((Integer) value);
+		else if (option == MBUDPServerChannelConfig.PACKING_WINDOW)
+			setPackingWindow((Integer) value);
+		else
+			return false;
+		return true;
+	}
+	
+	/**
+	 * 设置轻量会话模式下的共享处理器（须在socket开始收取数据前设置），设为null即为普通模式。
+	 * 
+	 * @param flatSessionHandler
+	 */
+	public void setFlatSessionHandler(MBUDPFlatSessionHandler flatSessionHandler)
+	{
+		this.flatSessionHandler = flatSessionHandler;
+		this.flatSessionConfig = (flatSessionHandler != null ? new DefaultChannelConfig(socketChannel) : null);
+	}
+	
+	public MBUDPFlatSessionHandler getFlatSessionHandler()
+	{
+		return flatSessionHandler;
+	}
+	
+	/**
+	 * 设置入站数据报排队限额（须在socket开始收取数据前设置），设为null即为不限制。
+	 * 
+	 * @param inboundLimiter
+	 */
+	public void setInboundLimiter(MBUDPInboundLimiter inboundLimiter)
+	{
+		this.inboundLimiter = inboundLimiter;
+	}
+	
+	public MBUDPInboundLimiter getInboundLimiter()
+	{
+		return inboundLimiter;
+	}
+	
+	/**
+	 * 设置会话准入控制（须在socket开始收取数据前设置），设为null即为任何数据报都可创建会话。
+	 * 
+	 * @param sessionGate
+	 */
+	public void setSessionGate(MBUDPSessionGate sessionGate)
+	{
+		this.sessionGate = sessionGate;
+	}
+	
+	public MBUDPSessionGate getSessionGate()
+	{
+		return sessionGate;
+	}
+	
+	/**
+	 * 设置会话的空闲超时时长（须在socket开始收取数据前设置）：超过该时长未收到数据的会话将被关闭。
+	 * 
+	 * @param idleTimeoutSeconds 单位：秒，<=0表示不检查
+	 */
+	public void setIdleTimeout(int idleTimeoutSeconds)
+	{
+		this.idleTimeoutSeconds = idleTimeoutSeconds;
+		this.idleReaper = (idleTimeoutSeconds > 0 ? new MBUDPIdleReaper(
+				TimeUnit.SECONDS.toNanos(idleTimeoutSeconds), TimeUnit.MILLISECONDS.toNanos(IDLE_CHECK_INTERVAL)) : null);
+	}
+	
+	public int getIdleTimeout()
+	{
+		return idleTimeoutSeconds;
+	}
+
+	/**
+	 * 将收到的一个数据报分派给对应客户端的MBUDPChannel。
+	 * 
+	 * @param remote 数据报的来源地址
+	 * @param buffer 数据报内容，调用本方法后其所有权即交给了对应的MBUDPChannel
+	 * @return 如果是新客户端（且非轻量会话模式）则返回新建的MBUDPChannel（调用者负责将其注册到worker线程），否则返回null
+	 */
+	public MBUDPChannel dispatch(InetSocketAddress remote, ByteBuf buffer)
+	{
+		MBUDPChannel udpchannel = channels.get(remote);
+		//如果address对应channel为空，则创建新channel
+		if ((udpchannel == null) || !udpchannel.isOpen()) 
+		{
+			// 客户端地址变了，但数据报带有原会话的令牌
+			if (rebind(remote, buffer))
+				return null;
+			
+			// 未通过准入检查（如尚未登陆）的数据报不创建会话，直接丢弃（或无状态地应答后丢弃）
+			if (sessionGate != null && !sessionGate.accept(remote, buffer))
+			{
+				ByteBuf reply = sessionGate.reject(buffer);
+				int requestLength = buffer.readableBytes();
+				buffer.release();
+				if (reply != null)
+				{
+					// 应答比请求大的话就可被利用来做反射放大攻击，不予发送
+					if (reply.readableBytes() > requestLength)
+						reply.release();
+					else
+					{
+						write(reply, remote);
+						flush();
+					}
+				}
+				return null;
+			}
+			
+			// 整个服务端的入站排队已超限时，不再接纳新客户端
+			if (inboundLimiter != null && inboundLimiter.isGlobalOverloaded(buffer.capacity()))
+			{
+				buffer.release();
+				inboundLimiter.countDroppedNewest();
+				return null;
+			}
+			
+			if (flatSessionHandler != null)
+			{
+				MBUDPFlatChannel flatchannel = new MBUDPFlatChannel(this, remote, flatSessionConfig, flatSessionHandler);
+				channels.put(remote, flatchannel);
+				addToIdleReaper(flatchannel);
+				flatchannel.fireSessionCreated();
+				flatchannel.datagramReceived(buffer);
+				return null;
+			}
+			
+			udpchannel = new MBUDPChannel(this, remote);
+			channels.put(remote, udpchannel);
+			addToIdleReaper(udpchannel);
+			udpchannel.addBuffer(buffer);
+			return udpchannel;
+		} 
+		else
+		{
+			if (idleReaper != null)
+				idleReaper.touch(udpchannel);
+			udpchannel.datagramReceived(buffer);
+			return null;
+		}
+	}
+	
+	/**
+	 * 如数据报带有有效的会话令牌，则将其交给令牌对应的原会话处理，并将该会话改绑到新地址。
+	 * 
+	 * @return true表示已交给原会话处理
+	 */
+	private boolean rebind(final InetSocketAddress remote, final ByteBuf buffer)
+	{
+		final MBUDPChannel bound = MBUDPSessionTokens.getInstance().get(ServerToolKits.peekSessionToken(buffer));
+		if (bound == null || !bound.isOpen())
+			return false;
+		
+		if (bound.sessionTable == this)
+		{
+			rebound(bound, remote, buffer);
+			return true;
+		}
+		
+		// 原会话属于另一个socket（SO_REUSEPORT模式下新地址被内核分到了其它socket），转交给该socket的IO线程处理
+		try
+		{
+			bound.sessionTable.socketChannel.eventLoop().execute(new Runnable() {
+				@Override
+				public void run() {
+					if (bound.isOpen())
+						bound.sessionTable.rebound(bound, remote, buffer);
+					else
+						buffer.release();
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			buffer.release();
+		}
+		return true;
+	}
+	
+	private void rebound(MBUDPChannel channel, InetSocketAddress remote, ByteBuf buffer)
+	{
+		InetSocketAddress oldRemote = channel.remote;
+		if (!remote.equals(oldRemote))
+		{
+			if (channels.get(oldRemote) == channel)
+				channels.remove(oldRemote);
+			channels.put(remote, channel);
+			channel.rebind(remote);
+		}
+		
+		if (idleReaper != null)
+			idleReaper.touch(channel);
+		channel.datagramReceived(buffer);
+	}
+	
+	private void addToIdleReaper(MBUDPChannel udpchannel)
+	{
+		if (idleReaper == null)
+			return;
+		
+		idleReaper.add(udpchannel);
+		if (idleCheckFuture == null)
+		{
+			idleCheckFuture = socketChannel.eventLoop().scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					idleReaper.expire();
+				}
+			}, IDLE_CHECK_INTERVAL, IDLE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * 将要发给客户端的一个数据报放入待写出队列（任意线程均可调用），须调用 flush() 才会真正写出。
+	 * 
+	 * @param content 数据报内容，调用本方法后其所有权即交给了本表
+	 * @param remote 客户端地址
+	 */
+	public void write(ByteBuf content, InetSocketAddress remote)
+	{
+		outboundQueue.offer(new DatagramPacket(content, remote));
+	}
+	
+	/**
+	 * 将要发给支持打包帧的客户端的一个数据帧放入待写出队列（任意线程均可调用），须调用 flush() 才会真正写出。
+	 * 
+	 * @param content 数据帧内容，调用本方法后其所有权即交给了本表
+	 * @param remote 客户端地址
+	 * @param packingBudget 合并后的数据报的最大字节数
+	 */
+	public void writePackable(ByteBuf content, InetSocketAddress remote, int packingBudget)
+	{
+		packableQueue.offer(new PackableFrame(content, remote, packingBudget));
+	}
+	
+	/**
+	 * 设置打包窗口时长：发给支持打包帧的客户端的数据帧最多等待这么久再写出，以便与其后写入的数据帧合并为一个数据报。
+	 * 
+	 * @param micros 单位：微秒，<=0表示不等待（此时只有恰好在同一写出批次中的数据帧才会被合并）
+	 */
+	public void setPackingWindow(long micros)
+	{
+		this.packingWindowMicros = micros;
+	}
+	
+	public long getPackingWindow()
+	{
+		return packingWindowMicros;
+	}
+	
+	/**
+	 * 通知socket的IO线程写出队列中的数据报（任意线程均可调用）。已有待执行的写出任务时本方法不会再投递新任务。
+	 */
+	public void flush()
+	{
+		if (flushScheduled.compareAndSet(false, true))
+		{
+			try
+			{
+				socketChannel.eventLoop().execute(flushTask);
+			}
+			catch (RejectedExecutionException e)
+			{
+				discardOutbound();
+			}
+		}
+	}
+	
+	/**
+	 * 通知socket的IO线程在打包窗口结束时写出待打包的数据帧（任意线程均可调用）。
+	 * 窗口内若有普通的写出任务执行，待打包的数据帧将随之提前写出。
+	 */
+	public void flushPackable()
+	{
+		if (packingWindowMicros <= 0)
+		{
+			flush();
+			return;
+		}
+		
+		if (packingFlushScheduled.compareAndSet(false, true))
+		{
+			try
+			{
+				socketChannel.eventLoop().schedule(packingFlushTask, packingWindowMicros, TimeUnit.MICROSECONDS);
+			}
+			catch (RejectedExecutionException e)
+			{
+				discardOutbound();
+			}
+		}
+	}
+	
+	private void discardOutbound()
+	{
+		// IO线程已关闭（服务端正在停止），丢弃全部待写出的数据报
+		DatagramPacket packet;
+		while ((packet = outboundQueue.poll()) != null)
+			packet.release();
+		PackableFrame frame;
+		while ((frame = packableQueue.poll()) != null)
+			frame.content.release();
+	}
+	
+	private void flushOutbound()
+	{
+		// 须在取队列之前复位，以免漏掉取队列期间新放入的数据报
+		flushScheduled.set(false);
+		
+		Channel.Unsafe unsafe = socketChannel.unsafe();
+		int written = 0;
+		DatagramPacket packet;
+		while (written < MAX_WRITES_PER_FLUSH && (packet = outboundQueue.poll()) != null)
+		{
+			unsafe.write(packet, unsafe.voidPromise());
+			written++;
+		}
+		written += writePackableFrames(unsafe, MAX_WRITES_PER_FLUSH - written);
+		
+		// 一批只flush一次（native epoll传输下多个数据报将通过sendmmsg一次系统调用写出）
+		if (written > 0)
+			unsafe.flush();
+		
+		if (!outboundQueue.isEmpty())
+			flush();
+		else if (!packableQueue.isEmpty())
+			flushPackable();
+	}
+	
+	/**
+	 * 取出待打包写出的数据帧，按客户端地址合并后写出（在socket的IO线程中调用）。
+	 * 
+	 * @return 取出的数据帧个数
+	 */
+	private int writePackableFrames(Channel.Unsafe unsafe, int limit)
+	{
+		int count = 0;
+		PackableFrame frame;
+		while (count < limit && (frame = packableQueue.poll()) != null)
+		{
+			Packer packer = packers.get(frame.remote);
+			if (packer == null)
+			{
+				packer = new Packer(frame.remote);
+				packers.put(frame.remote, packer);
+			}
+			packer.add(frame, unsafe);
+			count++;
+		}
+		
+		if (!packers.isEmpty())
+		{
+			for (Packer packer : packers.values())
+				packer.finish(unsafe);
+			packers.clear();
+		}
+		return count;
+	}
+
+	/**
+	 * 将一个客户端的Channel实例从会话表中移除。
+	 *
+	 * @param channel
+	 */
+	public void removeChannel(final Channel channel) 
+	{
+		socketChannel.eventLoop().submit(new Runnable() {
+			@Override
+			public void run() {
+				InetSocketAddress remote = (InetSocketAddress) channel.remoteAddress();
+				if (channels.get(remote) == channel) 
+				{
+					channels.remove(remote);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * 关闭本表中的全部客户端Channel（socket关闭时调用）。
+	 */
+	public void closeAll()
+	{
+		if (idleCheckFuture != null)
+		{
+			idleCheckFuture.cancel(false);
+			idleCheckFuture = null;
+		}
+		if (idleReaper != null)
+			idleReaper.clear();
+		
+		for (MBUDPChannel channel : channels.values())
+			channel.close();
+	}
+	
+	public int size()
+	{
+		return channels.size();
+	}
+	
+	/**
+	 * 待打包写出的一个数据帧。
+	 */
+	private static final class PackableFrame
+	{
+		final ByteBuf content;
+		final InetSocketAddress remote;
+		final int packingBudget;
+		
+		PackableFrame(ByteBuf content, InetSocketAddress remote, int packingBudget)
+		{
+			this.content = content;
+			this.remote = remote;
+			this.packingBudget = packingBudget;
+		}
+	}
+	
+	/**
+	 * 将同一写出批次中发给一个客户端的数据帧依次合并为打包帧，超出字节数上限时先写出已合并的部分。
+	 */
+	private final class Packer
+	{
+		private final InetSocketAddress remote;
+		/** 尚未合并的第一个数据帧（只有一个数据帧时无需打包，按原格式写出） **/
+		private ByteBuf first = null;
+		/** 已合并的打包帧 **/
+		private ByteBuf packed = null;
+		/** 当前内容打包后的字节数 **/
+		private int packedSize = 0;
+		
+		Packer(InetSocketAddress remote)
+		{
+			this.remote = remote;
+		}
+		
+		void add(PackableFrame frame, Channel.Unsafe unsafe)
+		{
+			ByteBuf content = frame.content;
+			int size = MBUDPPackedFrames.packedLength(content.readableBytes());
+			if (packedSize + size > frame.packingBudget)
+			{
+				finish(unsafe);
+				// 单个数据帧打包后就超出上限的，直接单独写出
+				if (1 + size > frame.packingBudget)
+				{
+					unsafe.write(new DatagramPacket(content, remote), unsafe.voidPromise());
+					return;
+				}
+			}
+			
+			if (first == null && packed == null)
+			{
+				first = content;
+				packedSize = 1 + size;
+				return;
+			}
+			
+			if (packed == null)
+			{
+				packed = socketChannel.alloc().directBuffer(frame.packingBudget);
+				packed.writeByte(MBUDPPackedFrames.MAGIC);
+				MBUDPPackedFrames.writeFrame(packed, first);
+				first.release();
+				first = null;
+			}
+			MBUDPPackedFrames.writeFrame(packed, content);
+			content.release();
+			packedSize += size;
+		}
+		
+		void finish(Channel.Unsafe unsafe)
+		{
+			ByteBuf datagram = (packed != null ? packed : first);
+			if (datagram != null)
+				unsafe.write(new DatagramPacket(datagram, remote), unsafe.voidPromise());
+			first = null;
+			packed = null;
+			packedSize = 0;
+		}
+	}
+}
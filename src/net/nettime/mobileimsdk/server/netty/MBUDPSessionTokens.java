@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * MBUDPSessionTokens.java at 2026-10-18 07:06:31, code by Jack Jiang.
+ */
+package net.nettime.mobileimsdk.server.netty;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.netty.channel.Channel;
+import net.openmob.mobileimsdk.server.protocal.Protocal;
+
+/**
+ * 会话令牌表（会话令牌 -> MBUDPChannel），供客户端地址改变后找回原会话（见 MBUDPSessionTable ）。
+ *
+ * 令牌在登陆成功时由服务端随机分配（64位，不可猜测），随登陆应答的sid字段下发给客户端（见 Protocal.getSid() ），
+ * 会话关闭时自动作废。一个会话在其生命周期内只分配一个令牌，重复登陆时沿用原令牌。
+ *
+ * 因SO_REUSEPORT模式下客户端换地址后可能被内核分到另一个socket，本表为全局单例，由所有socket的会话表共享。
+ */
+public class MBUDPSessionTokens
+{
+	private static final MBUDPSessionTokens instance = new MBUDPSessionTokens();
+	
+	private final ConcurrentHashMap<Long, MBUDPChannel> sessions = new ConcurrentHashMap<Long, MBUDPChannel>();
+	private final SecureRandom random = new SecureRandom();
+	
+	public static MBUDPSessionTokens getInstance()
+	{
+		return instance;
+	}
+	
+	private MBUDPSessionTokens()
+	{
+	}
+	
+	/**
+	 * 为会话分配令牌（已分配过的直接返回原令牌），须在该会话所属的worker线程中调用。
+	 * 
+	 * @param session
+	 * @return 令牌的sid字段形式，不支持令牌的会话（非MBUDPChannel）或会话已关闭时返回null
+	 */
+	public String issue(Channel session)
+	{
+		if (!(session instanceof MBUDPChannel) || !session.isOpen())
+			return null;
+		
+		MBUDPChannel channel = (MBUDPChannel) session;
+		long token = channel.sessionToken;
+		if (token == 0)
+		{
+			do
+			{
+				token = random.nextLong();
+			}
+			while (token == 0 || sessions.putIfAbsent(token, channel) != null);
+			channel.sessionToken = token;
+		}
+		return Protocal.sidToString(token);
+	}
+	
+	/**
+	 * 返回令牌对应的会话。
+	 * @param token
+	 * @return 令牌无效时返回null
+	 */
+	MBUDPChannel get(long token)
+	{
+		return (token == 0 ? null : sessions.get(token));
+	}
+	
+	/**
+	 * 作废会话的令牌（会话关闭时调用）。
+	 * @param channel
+	 */
+	void revoke(MBUDPChannel channel)
+	{
+		long token = channel.sessionToken;
+		if (token != 0)
+			sessions.remove(token, channel);
+	}
+	
+	public int size()
+	{
+		return sessions.size();
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * MBUDPWorkerScheduler.java at 2026-10-18 06:54:35, code by Jack Jiang.
+ */
+package net.nettime.mobileimsdk.server.netty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+
+/**
+ * 按用户id将客户端会话固定到worker线程的调度器。
+ *
+ * 会话创建时（登陆前）用户id尚不可知，仍按轮询方式分配worker线程；登陆成功后由 OnlineProcessor.putUser() 调用
+ * pin() ，将会话迁移到按用户id的哈希值选定的worker线程上，此后该用户的入站处理、出站写入均在这个固定的线程上进行，
+ * 重连（哪怕客户端地址已变）后也仍会回到同一线程，从而减少跨线程切换及CPU缓存失效。
+ */
+public class MBUDPWorkerScheduler
+{
+	private final EventLoopGroup workerGroup;
+	private final EventLoop[] workers;
+	
+	public MBUDPWorkerScheduler(EventLoopGroup workerGroup)
+	{
+		this.workerGroup = workerGroup;
+		
+		List<EventLoop> list = new ArrayList<EventLoop>();
+		for (EventExecutor executor : workerGroup)
+			list.add((EventLoop) executor);
+		this.workers = list.toArray(new EventLoop[list.size()]);
+	}
+	
+	/**
+	 * 为尚未登陆的新会话分配worker线程（轮询）。
+	 * @return
+	 */
+	public EventLoop next()
+	{
+		return workerGroup.next();
+	}
+	
+	/**
+	 * 返回指定用户固定所属的worker线程。
+	 * @param userId
+	 * @return
+	 */
+	public EventLoop workerFor(String userId)
+	{
+		int h = userId.hashCode();
+		// 混合高位，以免数字型用户id的哈希值低位分布不均
+		h ^= (h >>> 16);
+		return workers[(h & 0x7FFFFFFF) % workers.length];
+	}
+	
+	/**
+	 * 将已登陆用户的会话迁移到该用户固定所属的worker线程（已在该线程上时什么也不做）。
+	 * @param userId
+	 * @param session
+	 */
+	public void pin(String userId, Channel session)
+	{
+		if (userId != null && session instanceof MBUDPChannel)
+			((MBUDPChannel) session).migrateTo(workerFor(userId));
+	}
+	
+	public int getWorkerCount()
+	{
+		return workers.length;
+	}
+}
@@ -18,6 +18,8 @@ package net.openmob.mobileimsdk.server;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import net.nettime.mobileimsdk.server.netty.MBUDPChunkedFrames;
+import net.nettime.mobileimsdk.server.netty.MBUDPPackedFrames;
 import net.openmob.mobileimsdk.server.event.MessageQoSEventListenerS2C;
 import net.openmob.mobileimsdk.server.event.ServerEventListener;
 import net.openmob.mobileimsdk.server.processor.BridgeProcessor;
@@ -25,6 +27,7 @@ import net.openmob.mobileimsdk.server.processor.LogicProcessor;
 import net.openmob.mobileimsdk.server.processor.OnlineProcessor;
 import net.openmob.mobileimsdk.server.protocal.Protocal;
 import net.openmob.mobileimsdk.server.protocal.ProtocalType;
+import net.openmob.mobileimsdk.server.utils.LazyProtocal;
 import net.openmob.mobileimsdk.server.utils.LocalSendHelper;
 import net.openmob.mobileimsdk.server.utils.ServerToolKits;
 
@@ -90,7 +93,82 @@ public class ServerCoreHandler
 
     public void messageReceived(Channel session, ByteBuf bytebuf) throws Exception 
     {
-    	Protocal pFromClient = ServerToolKits.fromIOBuffer(bytebuf);
+    	// 打包帧（一个数据报中含多个数据帧，见 MBUDPPackedFrames ）拆包后依次处理
+    	if(MBUDPPackedFrames.isPacked(bytebuf))
+    	{
+    		for(ByteBuf frame : MBUDPPackedFrames.unpack(bytebuf))
+    			frameReceived(session, frame, true);
+    	}
+    	else
+    	{
+    		frameReceived(session, bytebuf, false);
+    	}
+    }
+    
+    private void frameReceived(Channel session, ByteBuf bytebuf, boolean packed) throws Exception 
+    {
+    	// 分片帧（见 MBUDPChunkTransfer ）须收齐重组后才按普通数据帧处理
+    	if(MBUDPChunkedFrames.isChunk(bytebuf))
+    	{
+    		if(!ServerLauncher.chunkingEnabled)
+    		{
+    			logger.debug("[IMCORE-netty]分片传输未启用，客户端"+ServerToolKits.clientInfoToString(session)+"的分片帧被忽略.");
+    			return;
+    		}
+    		ByteBuf frame = ServerToolKits.getChunkTransfer(session).received(session, bytebuf);
+    		if(frame != null)
+    		{
+    			try
+    			{
+    				frameReceived(session, frame, packed);
+    			}
+    			finally
+    			{
+    				frame.release();
+    			}
+    		}
+    		return;
+    	}
+    	
+    	// 心跳包和echo包先尝试走快速路径：仅凭帧头识别，不解码即应答（见 ServerLauncher.fastPathEnabled ）
+    	if(ServerLauncher.fastPathEnabled)
+    	{
+    		int type = ServerToolKits.peekFrameType(bytebuf);
+    		if(type == ProtocalType.C.FROM_CLIENT_TYPE_OF_KEEP$ALIVE && logicProcessor.processKeepAliveFast(session))
+    			return;
+    		if(type == ProtocalType.C.FROM_CLIENT_TYPE_OF_ECHO && logicProcessor.processEchoFast(session, bytebuf))
+    			return;
+    	}
+    	
+    	boolean binaryFrame = ServerToolKits.isBinaryFrame(bytebuf);
+    	// 只解码帧头，dataContent留待需要时才解码（见 ServerLauncher.lazyDecodingEnabled ）
+    	Protocal pFromClient = (ServerLauncher.lazyDecodingEnabled ? LazyProtocal.parse(bytebuf) : null);
+    	if(pFromClient == null)
+    		pFromClient = ServerToolKits.fromIOBuffer(bytebuf);
+    	try
+    	{
+    		protocalReceived(session, pFromClient, binaryFrame, packed);
+    	}
+    	finally
+    	{
+    		// 收到的原始帧在此之后即被释放
+    		if(pFromClient instanceof LazyProtocal)
+    			((LazyProtocal) pFromClient).detach();
+    	}
+    }
+    
+    private void protocalReceived(Channel session, Protocal pFromClient, boolean binaryFrame, boolean packed) throws Exception 
+    {
+    	// 会话令牌只用于在传输层找回会话（见 MBUDPSessionTokens ），须清除，以免随数据包被转发给其他用户
+    	pFromClient.setSid(null);
+    	
+    	// 会话的线上格式（JSON或二进制）以登陆包的格式为准，登陆前则以首个数据包的格式为准
+    	if(pFromClient.getType() == ProtocalType.C.FROM_CLIENT_TYPE_OF_LOGIN 
+    			|| !session.hasAttr(ServerToolKits.BINARY_PROTOCAL_IN_SESSION_ATTRIBUTE_ATTR))
+    		ServerToolKits.setBinaryProtocal(session, binaryFrame);
+    	// 是否打包发送则只以登陆包为准：客户端以打包帧发送登陆包即表示其支持打包帧
+    	if(pFromClient.getType() == ProtocalType.C.FROM_CLIENT_TYPE_OF_LOGIN)
+    		ServerToolKits.setPackedProtocal(session, packed);
 
     	String remoteAddress = ServerToolKits.clientInfoToString(session);
 //    	logger.info("---------------------------------------------------------");
@@ -108,7 +186,7 @@ public class ServerCoreHandler
 	    			return;
 	    		}
 	
-	    		logicProcessor.processACK(pFromClient, remoteAddress);
+	    		logicProcessor.processACK(session, pFromClient, remoteAddress);
 	    		break;
 	    	}
 	    	case ProtocalType.C.FROM_CLIENT_TYPE_OF_COMMON$DATA:
@@ -174,17 +252,16 @@ public class ServerCoreHandler
     
     public void sessionClosed(Channel session) throws Exception 
     {
+    	ServerToolKits.releaseChunkTransfer(session);
+    	
     	String user_id = OnlineProcessor.getUserIdFromSession(session);
     	if(user_id != null)
     	{
-	    	Channel sessionInOnlinelist = OnlineProcessor.getInstance().getOnlineSession(user_id);
-	    	
 	    	logger.info("[IMCORE-netty]"+ServerToolKits.clientInfoToString(session)+"的会话已关闭(user_id="+user_id+")了...");
     	
-    		if(sessionInOnlinelist != null && session != null && session == sessionInOnlinelist)
+    		// 只在在线列表中的会话就是本会话时才移除（原子操作，以免误删该用户此后新登陆的会话）
+    		if(OnlineProcessor.getInstance().removeUser(user_id, session))
     		{
-    			OnlineProcessor.getInstance().removeUser(user_id);
-
     			if(serverEventListener != null)
     				serverEventListener.onUserLogoutAction_CallBack(user_id, null, session);
     			else
@@ -16,24 +16,47 @@
  */
 package net.openmob.mobileimsdk.server;
 
+import io.netty.bootstrap.AbstractBootstrap;
+import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultEventLoopGroup;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.RecvByteBufAllocator;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.channel.unix.UnixChannelOption;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import net.nettime.mobileimsdk.server.bridge.QoS4ReciveDaemonC2B;
 import net.nettime.mobileimsdk.server.bridge.QoS4SendDaemonB2C;
 import net.nettime.mobileimsdk.server.netty.MBUDPClientInboundHandler;
+import net.nettime.mobileimsdk.server.netty.MBUDPEpollServerHandler;
+import net.nettime.mobileimsdk.server.netty.MBUDPFlatSessionHandler;
+import net.nettime.mobileimsdk.server.netty.MBUDPInboundLimiter;
+import net.nettime.mobileimsdk.server.netty.MBUDPReceiveBufferTuner;
 import net.nettime.mobileimsdk.server.netty.MBUDPServerChannel;
+import net.nettime.mobileimsdk.server.netty.MBUDPServerChannelConfig;
+import net.nettime.mobileimsdk.server.netty.MBUDPSessionGate;
+import net.nettime.mobileimsdk.server.netty.MBUDPWorkerScheduler;
 import net.openmob.mobileimsdk.server.event.MessageQoSEventListenerS2C;
 import net.openmob.mobileimsdk.server.event.ServerEventListener;
+import net.openmob.mobileimsdk.server.processor.OnlineProcessor;
+import net.openmob.mobileimsdk.server.protocal.DefaultFingerPrintGenerator;
+import net.openmob.mobileimsdk.server.protocal.FingerPrintGenerator;
+import net.openmob.mobileimsdk.server.protocal.Protocal;
 import net.openmob.mobileimsdk.server.qos.QoS4ReciveDaemonC2S;
 import net.openmob.mobileimsdk.server.qos.QoS4SendDaemonS2C;
 
@@ -53,6 +76,15 @@ import org.slf4j.LoggerFactory;
  * 提示2： 如果设置整个MobileIMSDK的算法敏感度类型，请调用 ServerToolKits.setSenseMode(SenseMode)， MobileIMSDK默认敏感度是 ServerToolKits.SenseMode#MODE_3S。
  *
  * 提示3： 如要开启与MobileIMSDK-Web版的消息互通，请设置 bridgeEnabled == true ，默认为false.
+ *
+ * 提示4： 如需利用多核提升UDP收发能力，请设置 REUSEPORT_SOCKET_COUNT 以便在同一端口上以SO_REUSEPORT方式绑定多个socket，
+ *        Linux下将优先使用netty的native epoll传输。
+ *
+ * 提示5： 如需单机承载海量（如百万级）空闲长连接，请设置 flatSessionEnabled == true 以开启轻量会话模式，
+ *        此模式下不再为每个客户端注册独立的pipeline，initChildChannelHandler4Netty()也将不再生效。
+ *
+ * 提示6： 如业务回调中没有阻塞操作，可设置 runToCompletionEnabled == true（最好同时设置 REUSEPORT_SOCKET_COUNT ），
+ *        使每个socket的IO线程独立完成其会话的整个收发过程，省去线程间交接的延迟。
  */
 public abstract class ServerLauncher 
 {
@@ -64,18 +96,153 @@ public abstract class ServerLauncher
 	/** 全局设置：AppKey **/
 	public static String appKey = null;
     public static int PORT = 7901;
-    /** UDP Session的空闲超时时长（单位：秒），默认10秒 **/
+    /** UDP Session的空闲超时时长（单位：秒），默认10秒。由各socket的会话表统一检查（见 MBUDPIdleReaper ），<=0表示不检查 **/
     public static int SESION_RECYCLER_EXPIRE = 10;
     /** 是否允许与MobileIMSDK Web版进行互通 **/
     public static boolean bridgeEnabled = false;
+    /** 
+     * 同一端口上以SO_REUSEPORT方式绑定的UDP socket个数，每个socket拥有各自独立的会话表和IO线程，
+     * 由内核按客户端地址将数据报分散到各socket。默认1即传统的单socket模式，<=0表示按CPU核数设置。
+     */
+    public static int REUSEPORT_SOCKET_COUNT = 1;
+    /** 多socket模式下是否优先使用netty的native epoll传输（仅Linux下可用，不可用时自动回退到NIO），默认true **/
+    public static boolean epollEnabled = true;
+    /** 
+     * 是否开启轻量会话模式：客户端会话不再注册到worker线程组、不再拥有各自的handler链，
+     * 数据报由一个共享处理器直接处理，空闲会话则由会话表统一回收，以便大幅降低每个会话的内存和调度开销。默认false。
+     */
+    public static boolean flatSessionEnabled = false;
+    /** 
+     * 是否开启run-to-completion模式（隐含开启轻量会话模式）：每个socket的IO线程独占其会话，数据报的收取、解码、业务处理及
+     * 应答写出均在该线程中完成，不再经由worker线程组，省去每次请求/应答在线程间的两次交接。此模式最好与多socket模式
+     * （见 REUSEPORT_SOCKET_COUNT ）一同使用，以便各IO线程分担全部会话；会话不再按用户id固定到worker线程
+     * （即 userAffinityEnabled 不再生效）。注意：业务回调（ServerEventListener等）中不可有阻塞操作。默认false。
+     */
+    public static boolean runToCompletionEnabled = false;
+    /** 
+     * UDP socket每次读就绪时最多连续收取的数据报个数（NIO和native epoll传输均有效），默认64。
+     * 批量收取可大幅减少突发流量下每个数据报的唤醒和调度开销，以免内核接收缓冲区溢出丢包，但过大会使单次读取占用IO线程过久。
+     */
+    public static int RECEIVE_BATCH_SIZE = 64;
+    /** 单个UDP数据报的最大接收字节数（超出部分将被截断），默认2048 **/
+    public static int RECEIVE_BUFFER_SIZE = 2048;
+    /** 
+     * 是否按实际大小存放收到的数据报：先收取到一个按 RECEIVE_BUFFER_SIZE 分配的可复用缓冲区，再复制到一个大小恰好的ByteBuf中。
+     * 否则每个待处理的数据报（哪怕只有几十字节的心跳包）都要占用 RECEIVE_BUFFER_SIZE 大小的内存直到被处理完。默认true。
+     */
+    public static boolean receiveCopyEnabled = true;
+    /** UDP socket的接收缓冲区大小（SO_RCVBUF，单位：字节），实际大小受系统参数net.core.rmem_max限制，<=0表示使用系统默认值 **/
+    public static int SO_RCVBUF = 0;
+    /** UDP socket的发送缓冲区大小（SO_SNDBUF，单位：字节），实际大小受系统参数net.core.wmem_max限制，<=0表示使用系统默认值 **/
+    public static int SO_SNDBUF = 0;
+    /** 发出数据报的IP头部TOS字段（IP_TOS，0~255，如0xB8即DSCP EF），<0表示不设置 **/
+    public static int IP_TOS = -1;
+    /** 
+     * 是否根据内核的UDP接收缓冲溢出丢包计数（Linux的 /proc/net/snmp ）自动调大接收缓冲区（见 MBUDPReceiveBufferTuner ），
+     * 最大调至 SO_RCVBUF_MAX。默认false。
+     */
+    public static boolean receiveBufferAutoTuneEnabled = false;
+    /** 自动调整时接收缓冲区的上限（单位：字节），默认16MB **/
+    public static int SO_RCVBUF_MAX = 16 * 1024 * 1024;
+    /** 单个客户端会话收到但尚未处理的数据报的最大排队字节数，默认256KB，<=0表示不限制 **/
+    public static int INBOUND_QUEUE_MAX_BYTES_PER_SESSION = 256 * 1024;
+    /** 整个服务端收到但尚未处理的数据报的最大排队字节数，默认256MB，<=0表示不限制 **/
+    public static long INBOUND_QUEUE_MAX_BYTES = 256L * 1024 * 1024;
+    /** 入站数据报排队超出上述限额时的处理策略，默认丢弃刚收到的数据报 **/
+    public static MBUDPInboundLimiter.OverloadPolicy INBOUND_OVERLOAD_POLICY = MBUDPInboundLimiter.OverloadPolicy.DROP_NEWEST;
+    /** 执行会话业务逻辑的worker线程数，<=0表示使用netty的默认值（CPU核数*2），须在ServerLauncher实例化之前设置 **/
+    public static int WORKER_THREAD_COUNT = 0;
+    /** 
+     * 是否将已登陆用户的会话固定到按其user_id哈希选定的worker线程上（见 MBUDPWorkerScheduler ），
+     * 使同一用户的入站处理、出站写入始终在同一线程上完成，以减少跨线程切换。默认true。
+     */
+    public static boolean userAffinityEnabled = true;
+    /** 
+     * 是否只为登陆包创建会话（见 MBUDPSessionGate ）：来自新客户端地址的其它数据报不再分配会话，也不做应答，直接丢弃，
+     * 由登陆包创建的会话数也受 NEW_SESSIONS_PER_SECOND 和 NEW_SESSIONS_PER_SOURCE_PER_SECOND 限制，
+     * 以免伪造来源地址的洪水包占满会话表和内存，或被利用来做UDP反射放大攻击。
+     * 
+     * 注意：开启后，会话已被空闲回收的客户端发来的心跳包等不会再收到“未登陆”错误应答（RESPONSE_FOR_UNLOGIN），
+     * 客户端要等到其心跳超时后才会重新登陆，因而默认false，以兼容已有的客户端。
+     */
+    public static boolean lazySessionEnabled = false;
+    /** lazySessionEnabled == true 时，整个服务端每秒最多可由登陆包创建的会话数，<=0表示不限 **/
+    public static int NEW_SESSIONS_PER_SECOND = 5000;
+    /** lazySessionEnabled == true 时，每秒同一来源IP最多可由登陆包创建的会话数（同一NAT后的客户端共用一个IP），<=0表示不限 **/
+    public static int NEW_SESSIONS_PER_SOURCE_PER_SECOND = 100;
+    /** 
+     * 是否在登陆成功时下发会话令牌（见 MBUDPSessionTokens ）：客户端在此后的包中带上该令牌，其IP或端口改变后
+     * （如移动网络切换导致NAT重新映射）服务端即可将其识别为原会话，而无需重新登陆。默认true。
+     */
+    public static boolean sessionRebindEnabled = true;
+    /** 
+     * 是否允许打包发送（见 MBUDPPackedFrames ）：对以打包帧发送登陆包的客户端，一个打包窗口（见 PACKING_WINDOW ）内发给它的多个数据帧
+     * 将合并为一个UDP数据报发送，以减少数据报个数及系统调用次数。不支持打包帧的客户端不受影响。默认true。
+     */
+    public static boolean packingEnabled = true;
+    /** 打包发送时每个UDP数据报的最大字节数，应不超过链路MTU减去IP/UDP头部的大小，默认1200 **/
+    public static int PACKING_MTU = 1200;
+    /** 
+     * 打包窗口时长（单位：微秒）：发给支持打包帧的客户端的数据帧最多等待这么久再写出，以便与其后陆续产生的数据帧
+     * （如同一时刻的ACK、心跳应答及消息）合并为一个数据报。<=0表示不等待，默认1000（即1毫秒）。
+     */
+    public static int PACKING_WINDOW = 1000;
+    /** 
+     * 是否启用分片传输（见 MBUDPChunkTransfer ）：编码后超过 CHUNK_THRESHOLD 的数据帧将被切分为多个分片发送，由接收方重组，
+     * 缺失的分片通过选择性重传补齐；客户端发来的分片帧也同样重组后再处理。默认true。
+     */
+    public static boolean chunkingEnabled = true;
+    /** 
+     * 超过该字节数的数据帧才分片发送，默认2048（即与 RECEIVE_BUFFER_SIZE 的默认值一致：更大的数据帧以往本就会被接收方截断，
+     * 因而分片不影响不支持分片帧的老客户端）。
+     */
+    public static int CHUNK_THRESHOLD = 2048;
+    /** 分片传输时每个分片的最大负载字节数，加上分片头部后应不超过 RECEIVE_BUFFER_SIZE 及链路MTU，默认1200 **/
+    public static int CHUNK_SIZE = 1200;
+    /** 每个会话的分片重组缓冲（及发送保留缓冲）的最大字节数，默认256KB **/
+    public static int CHUNK_BUFFER_MAX_BYTES = 256 * 1024;
+    /** 分片传输的重传间隔（单位：毫秒）：超过该时长仍未收齐分片即请求对端重传，默认300 **/
+    public static int CHUNK_RETRANSMIT_INTERVAL = 300;
+    /** 
+     * 是否启用心跳包及echo包的快速路径：仅凭帧头的几个字节识别出这两种包，不做完整解码，直接在收到它的会话上
+     * 以预编码的应答模板（见 ProtocalTemplate ）或原帧的副本应答，免去Protocal对象的创建及JSON编解码。默认true。
+     */
+    public static boolean fastPathEnabled = true;
+    /** 
+     * 是否只解码收到的数据包的帧头（见 LazyProtocal ）：dataContent保留为收到的原始字节，需要时才解码，
+     * 未被修改过的数据包（如C2C消息）则以原始帧直接转发给接收方，无需重新编码。默认true。
+     */
+    public static boolean lazyDecodingEnabled = true;
+    /** 
+     * 是否复用消息收发热路径上的临时对象（基于Netty的Recycler对象池）：每次发送的结果监听器、C2C/S2C消息的发送结果回调，
+     * 以及服务端生成的伪应答包和心跳应答包（见 RecyclableProtocal ），以免其随消息速率产生大量短命对象。默认true。
+     */
+    public static boolean objectPoolingEnabled = true;
+    /** 
+     * 本节点的指纹码节点id（见 DefaultFingerPrintGenerator ）：集群部署时应为各节点配置不同的值，以保证各节点生成的指纹码不重复。
+     * 0表示启动时随机生成，默认0。
+     */
+    public static int FINGERPRINT_NODE_ID = 0;
     
     private boolean running = false;
     /** MobileIMSDK框架的核心通信逻辑实现类（实现的是MobileIMSDK服务端的通信处理核心算法） **/
     protected ServerCoreHandler serverCoreHandler = null;
     
  	private final EventLoopGroup __bossGroup4Netty = new NioEventLoopGroup();
- 	private final EventLoopGroup __workerGroup4Netty = new DefaultEventLoopGroup();
- 	private Channel __serverChannel4Netty = null;
+ 	private final EventLoopGroup __workerGroup4Netty = new DefaultEventLoopGroup(Math.max(WORKER_THREAD_COUNT, 0));
+ 	/** native epoll传输的IO线程组（仅在多socket模式且epoll可用时才会创建） **/
+ 	private EventLoopGroup __epollGroup4Netty = null;
+ 	private final List<Channel> __serverChannels4Netty = new ArrayList<Channel>();
+ 	/** 轻量会话模式下所有会话共享的处理器（仅在 flatSessionEnabled 或 runToCompletionEnabled 为true时才会创建） **/
+ 	private MBUDPFlatSessionHandler __flatSessionHandler4Netty = null;
+ 	/** 所有socket共用的入站数据报排队限额（未设置任何限额时为null） **/
+ 	private MBUDPInboundLimiter __inboundLimiter4Netty = null;
+ 	/** 会话准入控制（仅在 lazySessionEnabled == true 时才会创建） **/
+ 	private MBUDPSessionGate __sessionGate4Netty = null;
+ 	/** 按用户id固定会话所属worker线程的调度器（仅在 userAffinityEnabled == true 时才会创建） **/
+ 	private MBUDPWorkerScheduler __workerScheduler4Netty = null;
+ 	/** 接收缓冲区自动调整器（仅在 receiveBufferAutoTuneEnabled == true 时才会创建） **/
+ 	private MBUDPReceiveBufferTuner __receiveBufferTuner4Netty = null;
 
  	public ServerLauncher() throws IOException 
  	{
@@ -100,7 +267,34 @@ public abstract class ServerLauncher
 
  			initListeners();
 
- 			ServerBootstrap bootstrap = initServerBootstrap4Netty();
+ 			Protocal.setFingerPrintGenerator(initFingerPrintGenerator());
+ 			__flatSessionHandler4Netty = (flatSessionEnabled || runToCompletionEnabled ? initFlatSessionHandler4Netty() : null);
+ 			__inboundLimiter4Netty = initInboundLimiter4Netty();
+ 			__sessionGate4Netty = (lazySessionEnabled ? initSessionGate4Netty() : null);
+ 			// run-to-completion模式下会话固定在其socket的IO线程中，不可再迁移到worker线程
+ 			__workerScheduler4Netty = (userAffinityEnabled && !runToCompletionEnabled ? new MBUDPWorkerScheduler(__workerGroup4Netty) : null);
+ 			OnlineProcessor.getInstance().setWorkerScheduler(__workerScheduler4Netty);
+ 			
+ 			int socketCount = getReusePortSocketCount();
+ 			boolean useEpoll = (socketCount > 1 && epollEnabled && Epoll.isAvailable());
+ 			// 会话表的配置项，NIO和epoll两种传输使用同一组配置项
+ 			Map<ChannelOption<?>, Object> sessionOptions = initSessionOptions4Netty();
+ 			AbstractBootstrap<?, ?> bootstrap = useEpoll ? 
+ 					initEpollBootstrap4Netty(socketCount, sessionOptions) : initServerBootstrap4Netty();
+ 			if(!useEpoll && socketCount > 1)
+ 				bootstrap.option(UnixChannelOption.SO_REUSEPORT, true);
+ 			bootstrap.option(ChannelOption.RCVBUF_ALLOCATOR, initRecvByteBufAllocator4Netty());
+ 			if(SO_RCVBUF > 0)
+ 				bootstrap.option(ChannelOption.SO_RCVBUF, SO_RCVBUF);
+ 			if(SO_SNDBUF > 0)
+ 				bootstrap.option(ChannelOption.SO_SNDBUF, SO_SNDBUF);
+ 			if(IP_TOS >= 0)
+ 				bootstrap.option(ChannelOption.IP_TOS, IP_TOS);
+ 			if(!useEpoll)
+ 			{
+ 				for(Map.Entry<ChannelOption<?>, Object> e : sessionOptions.entrySet())
+ 					setOption(bootstrap, e.getKey(), e.getValue());
+ 			}
 
  			QoS4ReciveDaemonC2S.getInstance().startup();
  			QoS4SendDaemonS2C.getInstance().startup(true).setServerLauncher(this);
@@ -118,13 +312,23 @@ public abstract class ServerLauncher
  				logger.info("[IMCORE-netty] 配置项：未开启与MobileIMSDK Web的互通.");
  			}
 
- 			ChannelFuture cf = bootstrap.bind("0.0.0.0", PORT).syncUninterruptibly();
- 			__serverChannel4Netty = cf.channel();
+ 			for(int i = 0; i < socketCount; i++)
+ 			{
+ 				ChannelFuture cf = bootstrap.bind("0.0.0.0", PORT).syncUninterruptibly();
+ 				__serverChannels4Netty.add(cf.channel());
+ 			}
+
+ 			if(receiveBufferAutoTuneEnabled)
+ 				__receiveBufferTuner4Netty = new MBUDPReceiveBufferTuner(__serverChannels4Netty, SO_RCVBUF_MAX).startup();
 
  			this.running = true;
- 			logger.info("[IMCORE-netty] 基于MobileIMSDK的UDP服务正在端口" + PORT+"上监听中...");
+ 			logger.info("[IMCORE-netty] 基于MobileIMSDK的UDP服务正在端口" + PORT+"上监听中（socket数："
+ 					+socketCount+"，传输方式："+(useEpoll ? "epoll" : "nio")
+ 					+(__flatSessionHandler4Netty != null ? "，轻量会话模式" : "")
+ 					+(runToCompletionEnabled ? "，run-to-completion模式" : "")+"）...");
 
- 			__serverChannel4Netty.closeFuture().await();
+ 			for(Channel serverChannel : __serverChannels4Netty)
+ 				serverChannel.closeFuture().await();
  		}
  		else
  		{
@@ -135,11 +339,20 @@ public abstract class ServerLauncher
 
     public void shutdown()
     {
-    	if (__serverChannel4Netty != null) 
-    		__serverChannel4Netty.close();
+    	if(__receiveBufferTuner4Netty != null)
+    	{
+    		__receiveBufferTuner4Netty.stop();
+    		__receiveBufferTuner4Netty = null;
+    	}
+    	for(Channel serverChannel : __serverChannels4Netty)
+    		serverChannel.close();
+    	__serverChannels4Netty.clear();
 
 		__bossGroup4Netty.shutdownGracefully();
 		__workerGroup4Netty.shutdownGracefully();
+		OnlineProcessor.getInstance().setWorkerScheduler(null);
+		if(__epollGroup4Netty != null)
+			__epollGroup4Netty.shutdownGracefully();
 		
     	QoS4ReciveDaemonC2S.getInstance().stop();
     	QoS4SendDaemonS2C.getInstance().stop();
@@ -180,11 +393,130 @@ public abstract class ServerLauncher
     		.childHandler(initChildChannelHandler4Netty());
     }
 
+	/**
+	 * 初始化多socket模式下基于native epoll传输的Netty辅助启动类。
+	 * 每个socket都有各自的 MBUDPEpollServerHandler（即独立的会话表），并分别注册到epoll线程组中不同的IO线程上。
+	 * @param socketCount 要绑定的socket个数
+	 * @param sessionOptions 各socket会话表的配置项（见 initSessionOptions4Netty() ）
+	 * @return
+	 */
+	protected Bootstrap initEpollBootstrap4Netty(int socketCount, final Map<ChannelOption<?>, Object> sessionOptions)
+	{
+		__epollGroup4Netty = new EpollEventLoopGroup(socketCount);
+		
+		final ChannelHandler childHandler = initChildChannelHandler4Netty();
+		return new Bootstrap()
+			.group(__epollGroup4Netty)
+			.channel(EpollDatagramChannel.class)
+			.option(UnixChannelOption.SO_REUSEPORT, true)
+			.handler(new ChannelInitializer<Channel>() {
+				@Override
+				protected void initChannel(Channel channel) throws Exception {
+					channel.pipeline().addLast(new MBUDPEpollServerHandler(__workerGroup4Netty, childHandler, sessionOptions));
+				}
+			});
+	}
+	
+	/**
+	 * 初始化各socket会话表的配置项（见 MBUDPServerChannelConfig ）：NIO传输时经由Bootstrap.option()设置，
+	 * epoll传输时交给每个socket的 MBUDPEpollServerHandler ，两种传输使用同一组配置项。
+	 * @return
+	 */
+	protected Map<ChannelOption<?>, Object> initSessionOptions4Netty()
+	{
+		Map<ChannelOption<?>, Object> options = new LinkedHashMap<ChannelOption<?>, Object>();
+		options.put(MBUDPServerChannelConfig.RECEIVE_COPY, receiveCopyEnabled);
+		options.put(MBUDPServerChannelConfig.IDLE_TIMEOUT, SESION_RECYCLER_EXPIRE);
+		options.put(MBUDPServerChannelConfig.PACKING_WINDOW, PACKING_WINDOW);
+		if(__inboundLimiter4Netty != null)
+			options.put(MBUDPServerChannelConfig.INBOUND_LIMITER, __inboundLimiter4Netty);
+		if(__sessionGate4Netty != null)
+			options.put(MBUDPServerChannelConfig.SESSION_GATE, __sessionGate4Netty);
+		if(__flatSessionHandler4Netty != null)
+			options.put(MBUDPServerChannelConfig.FLAT_SESSION_HANDLER, __flatSessionHandler4Netty);
+		return options;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> void setOption(AbstractBootstrap<?, ?> bootstrap, ChannelOption<T> option, Object value)
+	{
+		bootstrap.option(option, (T) value);
+	}
+	
+	/**
+	 * 初始化UDP socket的接收缓冲区分配器，决定了每个数据报的接收缓冲大小以及每次读就绪时最多连续收取的数据报个数。
+	 * @return
+	 */
+	protected RecvByteBufAllocator initRecvByteBufAllocator4Netty()
+	{
+		return new FixedRecvByteBufAllocator(RECEIVE_BUFFER_SIZE).maxMessagesPerRead(Math.max(1, RECEIVE_BATCH_SIZE));
+	}
+	
+	/**
+	 * 初始化入站数据报排队限额（见 INBOUND_QUEUE_MAX_BYTES_PER_SESSION 、 INBOUND_QUEUE_MAX_BYTES ），两者均不限制时返回null。
+	 * @return
+	 */
+	protected MBUDPInboundLimiter initInboundLimiter4Netty()
+	{
+		if(INBOUND_QUEUE_MAX_BYTES_PER_SESSION <= 0 && INBOUND_QUEUE_MAX_BYTES <= 0)
+			return null;
+		
+		return new MBUDPInboundLimiter(
+				INBOUND_QUEUE_MAX_BYTES_PER_SESSION > 0 ? INBOUND_QUEUE_MAX_BYTES_PER_SESSION : Integer.MAX_VALUE
+				, INBOUND_QUEUE_MAX_BYTES > 0 ? INBOUND_QUEUE_MAX_BYTES : Long.MAX_VALUE
+				, INBOUND_OVERLOAD_POLICY);
+	}
+	
+	/**
+	 * 初始化指纹码生成器（见 FINGERPRINT_NODE_ID ），如需使用自定义的指纹码格式，可重写本方法。
+	 * @return
+	 */
+	protected FingerPrintGenerator initFingerPrintGenerator()
+	{
+		return new DefaultFingerPrintGenerator(FINGERPRINT_NODE_ID);
+	}
+	
+	/**
+	 * 初始化所有socket共用的会话准入控制（见 lazySessionEnabled ），如需让登陆包以外的数据报也能创建会话，
+	 * 或对被拒绝的数据报做应答，可重写本方法返回 MBUDPSessionGate 的子类。
+	 * @return
+	 */
+	protected MBUDPSessionGate initSessionGate4Netty()
+	{
+		return new MBUDPSessionGate(NEW_SESSIONS_PER_SECOND, NEW_SESSIONS_PER_SOURCE_PER_SECOND);
+	}
+	
+	/**
+	 * 初始化轻量会话模式下所有会话共享的处理器（见 flatSessionEnabled ），其作用等同于
+	 * initChildChannelHandler4Netty() 中的UDP客户端处理器。
+	 * @return
+	 */
+	protected MBUDPFlatSessionHandler initFlatSessionHandler4Netty()
+	{
+		return new MBUDPFlatSessionHandler(serverCoreHandler, __workerGroup4Netty, runToCompletionEnabled);
+	}
+	
+	/**
+	 * 返回实际要绑定的socket个数（见 REUSEPORT_SOCKET_COUNT ）。
+	 * @return
+	 */
+	protected int getReusePortSocketCount()
+	{
+		int count = (REUSEPORT_SOCKET_COUNT > 0 ? REUSEPORT_SOCKET_COUNT : Runtime.getRuntime().availableProcessors());
+		if(count > 1 && !(epollEnabled && Epoll.isAvailable()) && !MBUDPServerChannelConfig.isReusePortSupported())
+		{
+			logger.warn("[IMCORE-netty] 当前环境既无法使用native epoll传输，NIO也不支持SO_REUSEPORT（需Java 9及以上），将回退为单socket模式！");
+			count = 1;
+		}
+		return count;
+	}
+
 	/**
 	 * 初始化针对Netty客户端的handler链，本方法在initServerBootstrap4Netty()中被调用。
 	 * 默认提供：
-	 * 		1.	UDP Session空闲超时处理器（netty内建）
-	 * 		2.	UDP客户端处理器（框架自建）
+	 * 		1.	UDP客户端处理器（框架自建）
+	 * 
+	 * 注：UDP Session的空闲超时已改由各socket的会话表统一检查（见 SESION_RECYCLER_EXPIRE ），无需再为每个客户端添加 ReadTimeoutHandler 。
 	 * @return
 	 */
 	protected ChannelHandler initChildChannelHandler4Netty()
@@ -193,8 +525,6 @@ public abstract class ServerLauncher
 			@Override
 			protected void initChannel(Channel channel) throws Exception {
 				channel.pipeline()
-						//UDP Session空闲超时处理器（netty内建）
-					.addLast(new ReadTimeoutHandler(SESION_RECYCLER_EXPIRE))
 						//UDP客户端处理器（框架自建）
 					.addLast(new MBUDPClientInboundHandler(serverCoreHandler));
 			}
@@ -237,6 +567,15 @@ public abstract class ServerLauncher
 		this.serverCoreHandler.setServerMessageQoSEventListener(serverMessageQoSEventListener);
 	}
 
+	/**
+	 * 返回入站数据报排队限额对象，可从中取得当前的排队字节数及各超限策略的丢弃计数（服务端未启动或未设置限额时为null）。
+	 * @return
+	 */
+	public MBUDPInboundLimiter getInboundLimiter()
+	{
+		return __inboundLimiter4Netty;
+	}
+
 	/**
 	 * 获取 ServerCoreHandler 对象引用。
 	 * @return
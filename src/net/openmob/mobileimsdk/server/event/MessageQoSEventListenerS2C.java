@@ -23,5 +23,12 @@ import net.openmob.mobileimsdk.server.protocal.Protocal;
 public interface MessageQoSEventListenerS2C
 {
 	void messagesLost(ArrayList<Protocal> lostMessages);
+	/**
+	 * 收到客户端对服务端所发QoS消息的应答时调用。重复的应答、以及消息已被 messagesLost() 通知为未送达后才迟到的应答
+	 * 也会调用本方法；但如果消息尚在重传队列中，而应答者（以其已登陆的会话为准）不是该消息的接收方，则该应答被忽略，
+	 * 不会调用本方法。
+	 * 
+	 * @param theFingerPrint 被应答的消息的指纹码
+	 */
 	void messagesBeReceived(String theFingerPrint);
 }
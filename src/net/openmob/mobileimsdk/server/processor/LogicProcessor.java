@@ -16,17 +16,23 @@
  */
 package net.openmob.mobileimsdk.server.processor;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import net.nettime.mobileimsdk.server.bridge.QoS4SendDaemonB2C;
 import net.nettime.mobileimsdk.server.netty.MBObserver;
+import net.nettime.mobileimsdk.server.netty.MBUDPSessionTokens;
 import net.openmob.mobileimsdk.server.ServerCoreHandler;
+import net.openmob.mobileimsdk.server.ServerLauncher;
 import net.openmob.mobileimsdk.server.protocal.Protocal;
 import net.openmob.mobileimsdk.server.protocal.ProtocalFactory;
+import net.openmob.mobileimsdk.server.protocal.ProtocalType;
 import net.openmob.mobileimsdk.server.protocal.c.PLoginInfo;
 import net.openmob.mobileimsdk.server.qos.QoS4ReciveDaemonC2S;
 import net.openmob.mobileimsdk.server.qos.QoS4SendDaemonS2C;
 import net.openmob.mobileimsdk.server.utils.GlobalSendHelper;
 import net.openmob.mobileimsdk.server.utils.LocalSendHelper;
+import net.openmob.mobileimsdk.server.utils.RecyclableProtocal;
+import net.openmob.mobileimsdk.server.utils.ServerToolKits;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,42 +63,31 @@ public class LogicProcessor
 	{
 		if(pFromClient.isQoS())// && processedOK)
 		{
-			if(QoS4ReciveDaemonC2S.getInstance().hasRecieved(pFromClient.getFp()))
+			// 判断是否重复包并记录之（原子操作，以免并发收到的重复包被漏判）
+			boolean firstRecieved = QoS4ReciveDaemonC2S.getInstance().addRecievedIfAbsent(pFromClient.getFp());
+			if(!firstRecieved && QoS4ReciveDaemonC2S.getInstance().isDebugable())
+				logger.debug("[IMCORE-本机QoS！]【QoS机制】"+pFromClient.getFp()
+						+"已经存在于发送列表中，这是重复包，通知业务处理层收到该包罗！");
+			
+			// 结果回调只用于输出调试日志，未开启debug日志时就不必为每个包创建它了
+			MBObserver receivedBackObserver = null;
+			if(logger.isDebugEnabled())
 			{
-				if(QoS4ReciveDaemonC2S.getInstance().isDebugable())
-					logger.debug("[IMCORE-本机QoS！]【QoS机制】"+pFromClient.getFp()
-							+"已经存在于发送列表中，这是重复包，通知业务处理层收到该包罗！");
-				
-				QoS4ReciveDaemonC2S.getInstance().addRecieved(pFromClient);
-				LocalSendHelper.replyDelegateRecievedBack(session
-						, pFromClient
-						, new MBObserver(){
-							@Override
-							public void update(boolean receivedBackSendSucess, Object extraObj)
-							{
-								if(receivedBackSendSucess)
-									logger.debug("[IMCORE-本机QoS！]【QoS_应答_C2S】向"+pFromClient.getFrom()+"发送"+pFromClient.getFp()
-											+"的应答包成功了,from="+pFromClient.getTo()+".");
-							}
-						}
-				);
-
-				return;
+				receivedBackObserver = new MBObserver(){
+					@Override
+					public void update(boolean receivedBackSendSucess, Object extraObj)
+					{
+						if(receivedBackSendSucess)
+							logger.debug("[IMCORE-本机QoS！]【QoS_应答_C2S】向"+pFromClient.getFrom()+"发送"+pFromClient.getFp()
+									+"的应答包成功了,from="+pFromClient.getTo()+".");
+					}
+				};
 			}
 			
-			QoS4ReciveDaemonC2S.getInstance().addRecieved(pFromClient);
-			LocalSendHelper.replyDelegateRecievedBack(session
-					, pFromClient
-					, new MBObserver(){
-						@Override
-						public void update(boolean receivedBackSendSucess, Object extraObj)
-						{
-							if(receivedBackSendSucess)
-								logger.debug("[IMCORE-本机QoS！]【QoS_应答_C2S】向"+pFromClient.getFrom()+"发送"+pFromClient.getFp()
-										+"的应答包成功了,from="+pFromClient.getTo()+".");
-						}
-					}
-			);
+			LocalSendHelper.replyDelegateRecievedBack(session, pFromClient, receivedBackObserver);
+			
+			if(!firstRecieved)
+				return;
 		}
 
 //		boolean processedOK = this.serverCoreHandler.getServerEventListener().onTransBuffer_CallBack(
@@ -101,18 +96,20 @@ public class LogicProcessor
 		boolean processedOK = this.serverCoreHandler.getServerEventListener().onTransBuffer_C2S_CallBack(pFromClient, session);
 	}
 	
-	public void processACK(final Protocal pFromClient, final String remoteAddress) throws Exception
+	public void processACK(Channel session, final Protocal pFromClient, final String remoteAddress) throws Exception
 	{
+		// 应答者以其会话中已登陆的user_id为准（应答包中的from字段可被伪造），只有消息的接收方才能确认该消息
+		String ackUserId = OnlineProcessor.getUserIdFromSession(session);
 		if("0".equals(pFromClient.getTo()))
 		{
 			String theFingerPrint = pFromClient.getDataContent();
-			logger.debug("[IMCORE-本机QoS！]【QoS机制_S2C】收到接收者"+pFromClient.getFrom()+"回过来的指纹为"+theFingerPrint+"的应答包.");
+			logger.debug("[IMCORE-本机QoS！]【QoS机制_S2C】收到接收者"+ackUserId+"回过来的指纹为"+theFingerPrint+"的应答包.");
 
-			if(this.serverCoreHandler.getServerMessageQoSEventListener() != null)
+			// 与以往一样，重复的、或消息已被判定为未送达后才迟到的应答也会通知应用层，只有冒充接收方的应答才被忽略
+			if(QoS4SendDaemonS2C.getInstance().removeAcked(theFingerPrint, ackUserId)
+					&& this.serverCoreHandler.getServerMessageQoSEventListener() != null)
 				this.serverCoreHandler.getServerMessageQoSEventListener()
 					.messagesBeReceived(theFingerPrint);
-
-			QoS4SendDaemonS2C.getInstance().remove(theFingerPrint);
 		}
 		else
 		{
@@ -124,19 +121,23 @@ public class LogicProcessor
 			
 			if(isBridge)
 			{
-				logger.debug("[IMCORE-桥接QoS！]【QoS机制_S2C】收到接收者"+pFromClient.getFrom()+"回过来的指纹为"+theFingerPrint+"的应答包.");
-				QoS4SendDaemonB2C.getInstance().remove(theFingerPrint);
+				logger.debug("[IMCORE-桥接QoS！]【QoS机制_S2C】收到接收者"+ackUserId+"回过来的指纹为"+theFingerPrint+"的应答包.");
+				QoS4SendDaemonB2C.getInstance().removeAcked(theFingerPrint, ackUserId);
 			}
 			else
 			{
-				MBObserver sendResultObserver = new MBObserver(){
-					@Override
-					public void update(boolean _sendOK, Object extraObj)
-					{
-						logger.debug("[IMCORE-本机QoS！]【QoS机制_C2C】"+pFromClient.getFrom()+"发给"+pFromClient.getTo()
-								+"的指纹为"+theFingerPrint+"的应答包已成功转发？"+_sendOK);
-					}
-				};
+				MBObserver sendResultObserver = null;
+				if(logger.isDebugEnabled())
+				{
+					sendResultObserver = new MBObserver(){
+						@Override
+						public void update(boolean _sendOK, Object extraObj)
+						{
+							logger.debug("[IMCORE-本机QoS！]【QoS机制_C2C】"+pFromClient.getFrom()+"发给"+pFromClient.getTo()
+									+"的指纹为"+theFingerPrint+"的应答包已成功转发？"+_sendOK);
+						}
+					};
+				}
 				
 				LocalSendHelper.sendData(pFromClient, sendResultObserver);
 			}
@@ -184,7 +185,7 @@ public class LogicProcessor
 				};
 				
 				LocalSendHelper.sendData(session
-						, ProtocalFactory.createPLoginInfoResponse(0, loginInfo.getLoginUserId()), retObserver);
+						, createLoginSuccessResponse(session, 0, loginInfo.getLoginUserId()), retObserver);
 			}
 			else
 			{
@@ -209,12 +210,21 @@ public class LogicProcessor
 						}
 					};
 					LocalSendHelper.sendData(session
-							, ProtocalFactory.createPLoginInfoResponse(code, loginInfo.getLoginUserId())
+							, createLoginSuccessResponse(session, code, loginInfo.getLoginUserId())
 							, sendResultObserver);
 				}
 				else
 				{
-					LocalSendHelper.sendData(session, ProtocalFactory.createPLoginInfoResponse(code, "-1"), null);
+					// 登陆失败的会话不再保留（见 ServerLauncher.lazySessionEnabled ），登陆失败应答发出后即关闭
+					MBObserver closeObserver = new MBObserver(){
+						@Override
+						public void update(boolean sendOK, Object extraObj)
+						{
+							if(ServerLauncher.lazySessionEnabled)
+								session.close();
+						}
+					};
+					LocalSendHelper.sendData(session, ProtocalFactory.createPLoginInfoResponse(code, "-1"), closeObserver);
 				}
 			}
 		}
@@ -224,17 +234,79 @@ public class LogicProcessor
 		}
 	}
 
+	/**
+	 * 创建登陆成功应答包，并在其中下发会话令牌（见 ServerLauncher.sessionRebindEnabled ）。
+	 */
+	private Protocal createLoginSuccessResponse(Channel session, int code, String user_id)
+	{
+		Protocal p = ProtocalFactory.createPLoginInfoResponse(code, user_id);
+		if(ServerLauncher.sessionRebindEnabled)
+			p.setSid(MBUDPSessionTokens.getInstance().issue(session));
+		return p;
+	}
+	
 	public void processKeepAlive(Channel session, Protocal pFromClient
 			, String remoteAddress) throws Exception
 	{
 		String userId = OnlineProcessor.getUserIdFromSession(session);
 		if(userId != null)
 		{
-			LocalSendHelper.sendData(ProtocalFactory.createPKeepAliveResponse(userId), null);
+			LocalSendHelper.sendData(createKeepAliveResponse(userId), null);
 		}
 		else
 		{
 			logger.warn("[IMCORE]>> Server在回客户端"+remoteAddress+"的响应包时，调用getUserIdFromSession返回null，用户在这一瞬间掉线了？！");
 		}
 	}
+	
+	/**
+	 * 心跳包的快速路径（见 ServerLauncher.fastPathEnabled ）：不解码心跳包，直接在收到它的会话上应答。
+	 * 只有该会话就是用户当前的在线会话时才走快速路径：用户从新地址重新登陆后，旧会话仍带着user_id，
+	 * 普通流程会把应答发到新会话，旧会话收不到应答，客户端才会发现它已被取代，旧会话也才会被空闲回收。
+	 * 
+	 * @param session 收到心跳包的会话
+	 * @return false表示无法走快速路径（如尚未登陆、或不是用户当前的在线会话），调用者应解码后按普通流程处理
+	 */
+	public boolean processKeepAliveFast(Channel session)
+	{
+		String userId = OnlineProcessor.getUserIdFromSession(session);
+		if(userId == null || !session.isActive() 
+				|| OnlineProcessor.getInstance().getOnlineSession(userId) != session)
+			return false;
+		
+		// 心跳应答包有预编码的模板（见 ProtocalFactory.getTemplate() ），编码时只需拼上接收方id
+		Protocal p = createKeepAliveResponse(userId);
+		ByteBuf response = ServerToolKits.toByteBuf(session, p);
+		RecyclableProtocal.release(p);
+		session.writeAndFlush(response, session.voidPromise());
+		return true;
+	}
+	
+	/**
+	 * 创建心跳应答包：它只在本次发送中使用，因而取自对象池（见 RecyclableProtocal ）。
+	 */
+	private Protocal createKeepAliveResponse(String user_id)
+	{
+		return RecyclableProtocal.newInstance(ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$KEEP$ALIVE
+				, ProtocalFactory.KEEP_ALIVE_RESPONSE_CONTENT, "0", user_id);
+	}
+	
+	/**
+	 * echo包的快速路径（见 ServerLauncher.fastPathEnabled ）：不解码echo包，直接复制原帧并改写其类型后在收到它的会话上应答。
+	 * 
+	 * @param session 收到echo包的会话
+	 * @param frame 收到的echo包（不移动读索引）
+	 * @return false表示无法走快速路径，调用者应解码后按普通流程处理
+	 */
+	public boolean processEchoFast(Channel session, ByteBuf frame)
+	{
+		if(!session.isActive())
+			return false;
+		
+		ByteBuf response = ServerToolKits.toEchoResponse(session, frame);
+		if(response == null)
+			return false;
+		session.writeAndFlush(response, session.voidPromise());
+		return true;
+	}
 }
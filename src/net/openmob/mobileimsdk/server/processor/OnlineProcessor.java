@@ -22,6 +22,8 @@ import io.netty.util.AttributeKey;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import net.nettime.mobileimsdk.server.netty.MBUDPWorkerScheduler;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +42,8 @@ public class OnlineProcessor
 	private static OnlineProcessor instance = null;
 	
 	private final ConcurrentMap<String, Channel> onlineSessions = new ConcurrentHashMap<String, Channel>();
+	/** 用户登陆后将其会话固定到所属worker线程的调度器（为null时不做迁移） **/
+	private volatile MBUDPWorkerScheduler workerScheduler = null;
 	
 	public static OnlineProcessor getInstance()
 	{
@@ -54,40 +58,65 @@ public class OnlineProcessor
 	
 	public void putUser(String user_id, Channel session)
 	{
-		if(onlineSessions.containsKey(user_id))
+		Channel old = onlineSessions.get(user_id);
+		if(old != null)
 		{
 			logger.debug("[IMCORE-netty]【注意】用户id="+user_id+"已经在在线列表中了，session也是同一个吗？"
-					+(onlineSessions.get(user_id).hashCode() == session.hashCode()));
+					+(old.hashCode() == session.hashCode()));
 		}
 		
 		onlineSessions.put(user_id, session);
 		
+		// 登陆后才知道会话所属的用户，此时将会话迁移到该用户固定所属的worker线程
+		MBUDPWorkerScheduler scheduler = workerScheduler;
+		if(scheduler != null)
+			scheduler.pin(user_id, session);
+		
 		__printOnline();// just for debug
 	}
 	
+	public void setWorkerScheduler(MBUDPWorkerScheduler workerScheduler)
+	{
+		this.workerScheduler = workerScheduler;
+	}
+	
 	public void __printOnline()
 	{
 		logger.debug("【@】当前在线用户共("+onlineSessions.size()+")人------------------->");
 		if(DEBUG)
 		{
 			for(String key : onlineSessions.keySet())
-				logger.debug("      > user_id="+key+",session="+onlineSessions.get(key).remoteAddress());
+			{
+				Channel session = onlineSessions.get(key);
+				if(session != null)
+					logger.debug("      > user_id="+key+",session="+session.remoteAddress());
+			}
 		}
 	}
 	
 	public boolean removeUser(String user_id)
 	{
-		synchronized(onlineSessions)
+		// 直接按key移除，不再需要全局锁
+		if(onlineSessions.remove(user_id) == null)
 		{
-			if(!onlineSessions.containsKey(user_id))
-			{
-				logger.warn("[IMCORE-netty]！用户id="+user_id+"不存在在线列表中，本次removeUser没有继续.");
-				__printOnline();// just for debug
-				return false;
-			}
-			else
-				return (onlineSessions.remove(user_id) != null);
+			logger.warn("[IMCORE-netty]！用户id="+user_id+"不存在在线列表中，本次removeUser没有继续.");
+			__printOnline();// just for debug
+			return false;
 		}
+		return true;
+	}
+	
+	/**
+	 * 移除用户的在线会话，但只在其在线会话就是session时才移除（以免会话关闭时误删了该用户此后新登陆的会话）。
+	 * 本方法是原子的条件移除（ConcurrentMap.remove(key, value)），不持有全局锁。
+	 * 
+	 * @param user_id
+	 * @param session
+	 * @return true表示已移除
+	 */
+	public boolean removeUser(String user_id, Channel session)
+	{
+		return onlineSessions.remove(user_id, session);
 	}
 	
 	public Channel getOnlineSession(String user_id)
@@ -105,6 +134,11 @@ public class OnlineProcessor
 	{
 		return onlineSessions;
 	}
+	
+	public int getOnlineCount()
+	{
+		return onlineSessions.size();
+	}
 
 	public static boolean isLogined(Channel session)
 	{
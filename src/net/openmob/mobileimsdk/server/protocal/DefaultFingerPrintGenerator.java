@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * DefaultFingerPrintGenerator.java at 2026-10-18 07:47:32, code by Jack Jiang.
+ */
+package net.openmob.mobileimsdk.server.protocal;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 默认的指纹码生成器：指纹码由“节点id-启动时间-序号”三部分组成（均为36进制），如"1x2f0k-kz3n5q8b-2s"。
+ * 
+ * 节点id区分集群中的各节点，启动时间区分同一节点的历次启动，序号则在本次启动内单调递增，因而生成的指纹码在重启后及
+ * 各节点间均不重复（前提是各节点的节点id不同，且重启前后系统时钟没有回拨）。生成时只需一次原子自增，
+ * 不像 UUID.randomUUID() 那样每次都要访问共享的SecureRandom，高并发（如大量用户同时登陆）时不会相互阻塞，
+ * 生成的指纹码也只有UUID的一半左右长。
+ */
+public class DefaultFingerPrintGenerator implements FingerPrintGenerator
+{
+	/** 指纹码中的固定部分（即“节点id-启动时间-”） **/
+	private final String prefix;
+	private final AtomicLong sequence = new AtomicLong();
+	
+	/**
+	 * 构造方法，节点id随机生成（集群中各节点的节点id重复的概率极低）。
+	 */
+	public DefaultFingerPrintGenerator()
+	{
+		this(0);
+	}
+	
+	/**
+	 * 构造方法。
+	 * 
+	 * @param nodeId 节点id，集群中各节点应各不相同，0表示随机生成
+	 */
+	public DefaultFingerPrintGenerator(int nodeId)
+	{
+		while(nodeId == 0)
+			nodeId = new SecureRandom().nextInt();
+		this.prefix = Long.toString(nodeId & 0xFFFFFFFFL, 36) + "-" 
+				+ Long.toString(System.currentTimeMillis(), 36) + "-";
+	}
+
+	@Override
+	public String generate()
+	{
+		return prefix + Long.toString(sequence.getAndIncrement(), 36);
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * FingerPrintGenerator.java at 2026-10-18 07:47:32, code by Jack Jiang.
+ */
+package net.openmob.mobileimsdk.server.protocal;
+
+/**
+ * 指纹码（即Protocal的fp字段，QoS机制中数据包的唯一标识）生成器，见 Protocal.setFingerPrintGenerator() 。
+ * 
+ * 实现类须是线程安全的，且生成的指纹码应在服务端重启后及集群的各节点间均不重复。
+ */
+public interface FingerPrintGenerator
+{
+	/**
+	 * 生成一个新的指纹码。
+	 * @return
+	 */
+	String generate();
+}
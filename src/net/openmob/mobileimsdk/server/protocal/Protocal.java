@@ -16,10 +16,6 @@
  */
 package net.openmob.mobileimsdk.server.protocal;
 
-import java.util.UUID;
-
-import com.google.gson.Gson;
-
 /**
  * Java、Android和Server端共用的协议定义类。
  */
@@ -41,8 +37,16 @@ public class Protocal
 	private boolean QoS = false;
 	/** 意义：应用层专用字段——用于应用层存放聊天、推送等场景下的消息类型。 **/
 	private int typeu = -1;
+	/** 
+	 * 意义：会话令牌（16位十六进制字符串），由服务端在登陆成功应答中下发，客户端此后发出的每个包都应带上。
+	 * 客户端IP或端口改变（如移动网络切换导致NAT重新映射）后，服务端据此将其识别为原会话，而无需重新登陆。为null表示未设置。
+	 */
+	private String sid = null;
 	/** 本字段仅用于客户端QoS时：表示丢包重试次数 **/
 	private transient int retryCount = 0;
+	
+	/** 指纹码生成器（见 genFingerPrint() ） **/
+	private static volatile FingerPrintGenerator fingerPrintGenerator = new DefaultFingerPrintGenerator();
 
 	public Protocal(int type, String dataContent, String from, String to)
 	{
@@ -116,6 +120,10 @@ public class Protocal
 	{
 		return this.fp;
 	}
+	public void setFp(String fp)
+	{
+		this.fp = fp;
+	}
 
 	public int getRetryCount()
 	{
@@ -153,9 +161,20 @@ public class Protocal
 		this.typeu = typeu;
 	}
 	
+	public String getSid()
+	{
+		return sid;
+	}
+	public void setSid(String sid)
+	{
+		this.sid = sid;
+	}
+	
 	public String toGsonString()
 	{
-		return new Gson().toJson(this);
+		StringBuilder json = new StringBuilder();
+		ProtocalFactory.toJson(this, json);
+		return json.toString();
 	}
 	
 	public byte[] toBytes()
@@ -173,8 +192,50 @@ public class Protocal
 		return cloneP;
 	}
 	
+	/**
+	 * 设置指纹码生成器（默认为 DefaultFingerPrintGenerator ），应在服务端启动前设置。
+	 * @param generator
+	 */
+	public static void setFingerPrintGenerator(FingerPrintGenerator generator)
+	{
+		if(generator == null)
+			throw new IllegalArgumentException("generator不能为null");
+		fingerPrintGenerator = generator;
+	}
+	
 	public static String genFingerPrint()
 	{
-		return UUID.randomUUID().toString();
+		return fingerPrintGenerator.generate();
+	}
+	
+	/**
+	 * 将会话令牌格式化为sid字段所用的16位十六进制字符串。
+	 * @param token
+	 * @return
+	 */
+	public static String sidToString(long token)
+	{
+		String hex = Long.toHexString(token);
+		return "0000000000000000".substring(hex.length()) + hex;
+	}
+	
+	/**
+	 * 解析sid字段中的会话令牌。
+	 * @param sid
+	 * @return 会话令牌，sid为null或格式不合法时返回0
+	 */
+	public static long sidToToken(String sid)
+	{
+		if(sid == null || sid.length() != 16)
+			return 0;
+		long token = 0;
+		for(int i = 0; i < 16; i++)
+		{
+			int digit = Character.digit(sid.charAt(i), 16);
+			if(digit < 0)
+				return 0;
+			token = (token << 4) | digit;
+		}
+		return token;
 	}
 }
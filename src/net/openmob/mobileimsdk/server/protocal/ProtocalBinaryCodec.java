@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * ProtocalBinaryCodec.java at 2026-10-18 06:32:55, code by Jack Jiang.
+ */
+package net.openmob.mobileimsdk.server.protocal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Protocal的紧凑二进制编解码实现（JSON格式之外的另一种可选线上格式）。
+ * 
+ * 帧格式如下：
+ * <pre>
+ *   magic        1字节，固定为 0xB1（JSON帧总是以'{'开头，因而两种格式可按首字节区分、互不干扰）
+ *   type         1字节
+ *   flags        1字节：bit0 = QoS，bit1 = bridge，bit2 = 带有会话令牌
+ *   sid          8字节（仅当flags的bit2为1时才有），会话令牌（见 Protocal.getSid() ）
+ *   typeu        varint（zigzag编码，以便-1等负值也只占1字节）
+ *   from         varint长度前缀 + UTF-8字节
+ *   to           同上
+ *   fp           同上
+ *   dataContent  同上
+ * </pre>
+ * 字符串的长度前缀为0表示null，为n+1时表示其后紧跟n个字节。
+ * 
+ * 客户端使用何种格式由其登陆包的格式决定（见 ServerCoreHandler.messageReceived()），服务端对任一会话都可同时接收两种格式。
+ */
+public class ProtocalBinaryCodec
+{
+	/** 二进制帧的首字节（魔数） **/
+	public final static byte MAGIC = (byte) 0xB1;
+	
+	private final static int FLAG_QOS = 0x01;
+	private final static int FLAG_BRIDGE = 0x02;
+	private final static int FLAG_SID = 0x04;
+	
+	private final static Charset UTF8 = Charset.forName(CharsetHelper.DECODE_CHARSET);
+	
+	/**
+	 * 根据首字节判断一个数据帧是否为二进制格式。
+	 * @param firstByte
+	 * @return
+	 */
+	public static boolean isBinary(byte firstByte)
+	{
+		return firstByte == MAGIC;
+	}
+	
+	/**
+	 * 不解码整个帧，仅根据二进制帧的标志字节（帧的第3个字节）判断其是否需要QoS。
+	 * @param flags
+	 * @return
+	 */
+	public static boolean isQoS(byte flags)
+	{
+		return (flags & FLAG_QOS) != 0;
+	}
+	
+	/**
+	 * 不解码整个帧，仅根据二进制帧的标志字节判断其是否带有会话令牌（令牌即紧随标志字节之后的8个字节）。
+	 * @param flags
+	 * @return
+	 */
+	public static boolean hasSid(byte flags)
+	{
+		return (flags & FLAG_SID) != 0;
+	}
+	
+	/**
+	 * 返回Protocal编码后的字节数。
+	 * @param p
+	 * @return
+	 */
+	public static int encodedLength(Protocal p)
+	{
+		return 3 
+			+ (Protocal.sidToToken(p.getSid()) != 0 ? 8 : 0)
+			+ varintLength(zigzag(p.getTypeu()))
+			+ stringLength(p.getFrom())
+			+ stringLength(p.getTo())
+			+ stringLength(p.getFp())
+			+ stringLength(p.getDataContent());
+	}
+	
+	public static byte[] encode(Protocal p)
+	{
+		byte[] bytes = new byte[encodedLength(p)];
+		encode(p, ByteBuffer.wrap(bytes));
+		return bytes;
+	}
+	
+	/**
+	 * 将Protocal编码写入dst（dst的剩余空间应不小于 encodedLength(p)）。
+	 * @param p
+	 * @param dst
+	 */
+	public static void encode(Protocal p, ByteBuffer dst)
+	{
+		if(p.getType() < 0 || p.getType() > 0xFF)
+			throw new IllegalArgumentException("二进制格式不支持的协议类型：type="+p.getType());
+		
+		long sid = Protocal.sidToToken(p.getSid());
+		dst.put(MAGIC);
+		dst.put((byte) p.getType());
+		dst.put((byte) ((p.isQoS() ? FLAG_QOS : 0) | (p.isBridge() ? FLAG_BRIDGE : 0) | (sid != 0 ? FLAG_SID : 0)));
+		if(sid != 0)
+			dst.putLong(sid);
+		writeVarint(dst, zigzag(p.getTypeu()));
+		writeString(dst, p.getFrom());
+		writeString(dst, p.getTo());
+		writeString(dst, p.getFp());
+		writeString(dst, p.getDataContent());
+	}
+	
+	/**
+	 * 从src的当前位置解码一个二进制帧（src的position将移动到帧尾）。
+	 * @param src
+	 * @return
+	 * @throws IllegalArgumentException 帧格式不合法时
+	 */
+	public static Protocal decode(ByteBuffer src)
+	{
+		Protocal p = decodeHeader(src);
+		p.setDataContent(decodeDataContent(src));
+		if(p.isQoS() && p.getFp() == null)
+			p.setFp(Protocal.genFingerPrint());
+		return p;
+	}
+	
+	/**
+	 * 从src的当前位置只解码二进制帧中dataContent以外的字段（即帧头，dataContent是帧的最后一个字段），
+	 * src的position将停在dataContent字段的开头，其后可用 decodeDataContent() 解码dataContent。
+	 * @param src
+	 * @return dataContent为null的Protocal（与 decode() 不同，需要QoS但没有指纹码的帧不会补生成指纹码）
+	 * @throws IllegalArgumentException 帧格式不合法时
+	 */
+	public static Protocal decodeHeader(ByteBuffer src)
+	{
+		if(src.remaining() < 3 || src.get() != MAGIC)
+			throw new IllegalArgumentException("不是合法的二进制Protocal帧");
+		
+		int type = src.get() & 0xFF;
+		int flags = src.get() & 0xFF;
+		long sid = 0;
+		if((flags & FLAG_SID) != 0)
+		{
+			if(src.remaining() < 8)
+				throw new IllegalArgumentException("会话令牌不完整：remaining="+src.remaining());
+			sid = src.getLong();
+		}
+		int typeu = unzigzag(readVarint(src));
+		String from = readString(src);
+		String to = readString(src);
+		String fp = readString(src);
+		
+		Protocal p = new Protocal(type, null, from, to, false, fp, typeu);
+		p.setQoS((flags & FLAG_QOS) != 0);
+		p.setBridge((flags & FLAG_BRIDGE) != 0);
+		if(sid != 0)
+			p.setSid(Protocal.sidToString(sid));
+		return p;
+	}
+	
+	/**
+	 * 从src的当前位置解码dataContent字段（见 decodeHeader() ）。
+	 * @param src
+	 * @return
+	 * @throws IllegalArgumentException 格式不合法时
+	 */
+	public static String decodeDataContent(ByteBuffer src)
+	{
+		return readString(src);
+	}
+	
+	/**
+	 * 从src的当前位置跳过dataContent字段（只校验其长度，不解码）。
+	 * @param src
+	 * @throws IllegalArgumentException 格式不合法时
+	 */
+	public static void skipDataContent(ByteBuffer src)
+	{
+		int len = readLength(src);
+		if(len > 0)
+			src.position(src.position() + len);
+	}
+	
+	/**
+	 * 不解码整个帧，仅根据二进制帧的标志字节清除其会话令牌标志（令牌本身须由调用者一并去掉）。
+	 * @param flags
+	 * @return
+	 */
+	public static byte clearSid(byte flags)
+	{
+		return (byte) (flags & ~FLAG_SID);
+	}
+	
+	private static int zigzag(int n)
+	{
+		return (n << 1) ^ (n >> 31);
+	}
+	
+	private static int unzigzag(int n)
+	{
+		return (n >>> 1) ^ -(n & 1);
+	}
+	
+	private static int varintLength(int v)
+	{
+		int len = 1;
+		while((v & ~0x7F) != 0)
+		{
+			v >>>= 7;
+			len++;
+		}
+		return len;
+	}
+	
+	private static void writeVarint(ByteBuffer dst, int v)
+	{
+		while((v & ~0x7F) != 0)
+		{
+			dst.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		dst.put((byte) v);
+	}
+	
+	private static int readVarint(ByteBuffer src)
+	{
+		int v = 0;
+		for(int shift = 0; shift < 35; shift += 7)
+		{
+			if(!src.hasRemaining())
+				throw new IllegalArgumentException("varint不完整");
+			byte b = src.get();
+			v |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+				return v;
+		}
+		throw new IllegalArgumentException("varint格式不合法");
+	}
+	
+	private static int stringLength(String s)
+	{
+		if(s == null)
+			return 1;
+		int len = utf8Length(s);
+		return varintLength(len + 1) + len;
+	}
+	
+	private static void writeString(ByteBuffer dst, String s)
+	{
+		if(s == null)
+		{
+			writeVarint(dst, 0);
+			return;
+		}
+		writeVarint(dst, utf8Length(s) + 1);
+		writeUtf8(dst, s);
+	}
+	
+	/**
+	 * 读取字符串的长度前缀（已校验不越界）。
+	 * @return 字符串的字节数，-1表示null
+	 */
+	private static int readLength(ByteBuffer src)
+	{
+		int v = readVarint(src);
+		if(v < 0 || v - 1 > src.remaining())
+			throw new IllegalArgumentException("字符串长度越界：len="+(v - 1));
+		return v - 1;
+	}
+	
+	private static String readString(ByteBuffer src)
+	{
+		int len = readLength(src);
+		if(len < 0)
+			return null;
+		
+		String s;
+		if(src.hasArray())
+		{
+			s = new String(src.array(), src.arrayOffset() + src.position(), len, UTF8);
+			src.position(src.position() + len);
+		}
+		else
+		{
+			byte[] bytes = new byte[len];
+			src.get(bytes);
+			s = new String(bytes, UTF8);
+		}
+		return s;
+	}
+	
+	/**
+	 * 计算字符串的UTF-8编码字节数（无需真正编码）。
+	 */
+	static int utf8Length(String s)
+	{
+		int len = 0;
+		for(int i = 0, n = s.length(); i < n; i++)
+		{
+			char c = s.charAt(i);
+			if(c < 0x80)
+				len += 1;
+			else if(c < 0x800)
+				len += 2;
+			else if(Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1)))
+			{
+				len += 4;
+				i++;
+			}
+			else if(Character.isSurrogate(c))
+				len += 1;
+			else
+				len += 3;
+		}
+		return len;
+	}
+	
+	/**
+	 * 将字符串以UTF-8编码直接写入dst，免去String.getBytes()产生的中间数组。
+	 */
+	static void writeUtf8(ByteBuffer dst, String s)
+	{
+		for(int i = 0, n = s.length(); i < n; i++)
+		{
+			char c = s.charAt(i);
+			if(c < 0x80)
+				dst.put((byte) c);
+			else if(c < 0x800)
+			{
+				dst.put((byte) (0xC0 | (c >> 6)));
+				dst.put((byte) (0x80 | (c & 0x3F)));
+			}
+			else if(Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1)))
+			{
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				dst.put((byte) (0xF0 | (cp >> 18)));
+				dst.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+				dst.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+				dst.put((byte) (0x80 | (cp & 0x3F)));
+			}
+			else if(Character.isSurrogate(c))
+				// 落单的代理字符按'?'处理，与String.getBytes()（即JSON格式）的行为一致
+				dst.put((byte) '?');
+			else
+			{
+				dst.put((byte) (0xE0 | (c >> 12)));
+				dst.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+				dst.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+}
@@ -22,13 +22,104 @@ import net.openmob.mobileimsdk.server.protocal.s.PErrorResponse;
 import net.openmob.mobileimsdk.server.protocal.s.PKeepAliveResponse;
 import net.openmob.mobileimsdk.server.protocal.s.PLoginInfoResponse;
 
+import java.io.Reader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import com.google.gson.Gson;
 
 public class ProtocalFactory
 {
+	/** Gson实例是线程安全的，可全局共用，以免每次编解码都重建其内部的TypeAdapter缓存 **/
+	private static final Gson gson = new Gson();
+	
+	/**
+	 * 将对象以JSON格式直接输出到writer（不产生中间String）。
+	 * @param c
+	 * @param writer
+	 */
+	public static void toJson(Object c, Appendable writer)
+	{
+		// Gson直接读取字段，dataContent延迟解码的Protocal子类须先经getter解码一次
+		if(c instanceof Protocal)
+			((Protocal) c).getDataContent();
+		gson.toJson(c, writer);
+	}
+	
 	private static String create(Object c)
 	{
-		return new Gson().toJson(c);
+		return gson.toJson(c);
+	}
+	
+	/** 心跳应答包的dataContent（内容固定，无需每次编码） **/
+	public static final String KEEP_ALIVE_RESPONSE_CONTENT = create(new PKeepAliveResponse());
+	/** 按code缓存的登陆应答包的dataContent **/
+	private static final ConcurrentMap<Integer, String> loginResponseContents = new ConcurrentHashMap<Integer, String>();
+	/** 按errorCode缓存的（不带errorMsg的）错误应答包的dataContent **/
+	private static final ConcurrentMap<Integer, String> errorResponseContents = new ConcurrentHashMap<Integer, String>();
+	/** 以上两个缓存各自的最大条目数（code由应用层决定，以免取值过多时无限增长） **/
+	private static final int MAX_CACHED_CONTENTS = 64;
+	
+	private static String createCached(ConcurrentMap<Integer, String> cache, int code, Object c)
+	{
+		String content = cache.get(code);
+		if(content == null)
+		{
+			content = create(c);
+			if(cache.size() < MAX_CACHED_CONTENTS)
+				cache.putIfAbsent(code, content);
+		}
+		return content;
+	}
+	
+	/**
+	 * 服务端各固定形态数据包的预编码模板（见 ProtocalTemplate ），首次使用时才创建。
+	 */
+	private static class Templates
+	{
+		static final ProtocalTemplate KEEP_ALIVE_RESPONSE = new ProtocalTemplate(
+				createPKeepAliveResponse("0"), ProtocalTemplate.FIELD_TO);
+		static final ProtocalTemplate RECIVED_BACK = new ProtocalTemplate(
+				createRecivedBack("0", "0", "0")
+				, ProtocalTemplate.FIELD_FROM | ProtocalTemplate.FIELD_TO | ProtocalTemplate.FIELD_DATA_CONTENT);
+		static final ProtocalTemplate LOGIN_RESPONSE = new ProtocalTemplate(
+				createPLoginInfoResponse(0, "0")
+				, ProtocalTemplate.FIELD_TO | ProtocalTemplate.FIELD_FP | ProtocalTemplate.FIELD_DATA_CONTENT);
+		static final ProtocalTemplate LOGIN_RESPONSE_WITH_SID = new ProtocalTemplate(
+				createPLoginInfoResponse(0, "0")
+				, ProtocalTemplate.FIELD_TO | ProtocalTemplate.FIELD_FP | ProtocalTemplate.FIELD_DATA_CONTENT 
+					| ProtocalTemplate.FIELD_SID);
+		static final ProtocalTemplate ERROR_RESPONSE = new ProtocalTemplate(
+				createPErrorResponse(0, null, "0")
+				, ProtocalTemplate.FIELD_TO | ProtocalTemplate.FIELD_DATA_CONTENT);
+	}
+	
+	/**
+	 * 取得可用于编码p的预编码模板（ACK应答、心跳应答、登陆应答、错误应答等服务端固定形态的数据包才有模板）。
+	 * @param p
+	 * @return 没有可用的模板时返回null（应改走普通的编码方式）
+	 */
+	public static ProtocalTemplate getTemplate(Protocal p)
+	{
+		ProtocalTemplate t;
+		switch(p.getType())
+		{
+			case ProtocalType.C.FROM_CLIENT_TYPE_OF_RECIVED:
+				t = Templates.RECIVED_BACK;
+				break;
+			case ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$KEEP$ALIVE:
+				t = Templates.KEEP_ALIVE_RESPONSE;
+				break;
+			case ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$LOGIN:
+				t = (p.getSid() != null ? Templates.LOGIN_RESPONSE_WITH_SID : Templates.LOGIN_RESPONSE);
+				break;
+			case ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$FOR$ERROR:
+				t = Templates.ERROR_RESPONSE;
+				break;
+			default:
+				return null;
+		}
+		return t.canEncode(p) ? t : null;
 	}
 	
 //	public static <T> T parse(byte[] fullProtocalJASOnBytes, int len, Class<T> clazz)
@@ -38,7 +129,18 @@ public class ProtocalFactory
 	
 	public static <T> T parse(String dataContentOfProtocal, Class<T> clazz)
 	{
-		return new Gson().fromJson(dataContentOfProtocal, clazz);
+		return gson.fromJson(dataContentOfProtocal, clazz);
+	}
+	
+	/**
+	 * 从reader中流式解析JSON（不产生中间String，如配合 ByteBufUtf8Reader 直接解析收到的数据帧）。
+	 * @param reader
+	 * @param clazz
+	 * @return
+	 */
+	public static <T> T parse(Reader reader, Class<T> clazz)
+	{
+		return gson.fromJson(reader, clazz);
 	}
 	
 //	public static Protocal parse(byte[] fullProtocalJASOnBytes, int len)
@@ -49,7 +151,7 @@ public class ProtocalFactory
 	public static Protocal createPKeepAliveResponse(String to_user_id)
 	{
 		return new Protocal(ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$KEEP$ALIVE
-				, create(new PKeepAliveResponse()), "0", to_user_id);
+				, KEEP_ALIVE_RESPONSE_CONTENT, "0", to_user_id);
 	}
 	
 	public static PKeepAliveResponse parsePKeepAliveResponse(String dataContentOfProtocal)
@@ -71,7 +173,9 @@ public class ProtocalFactory
 	public static Protocal createPErrorResponse(int errorCode, String errorMsg, String user_id)
 	{
 		return new Protocal(ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$FOR$ERROR
-				, create(new PErrorResponse(errorCode, errorMsg)), "0", user_id);
+				, errorMsg == null ? createCached(errorResponseContents, errorCode, new PErrorResponse(errorCode, null))
+						: create(new PErrorResponse(errorCode, errorMsg))
+				, "0", user_id);
 	}
 	
 	public static PErrorResponse parsePErrorResponse(String dataContentOfProtocal)
@@ -103,7 +207,7 @@ public class ProtocalFactory
 			, String user_id)
 	{
 		return new Protocal(ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$LOGIN
-				, create(new PLoginInfoResponse(code))
+				, createCached(loginResponseContents, code, new PLoginInfoResponse(code))
 				, "0"
 				, user_id 
 				, true, Protocal.genFingerPrint()
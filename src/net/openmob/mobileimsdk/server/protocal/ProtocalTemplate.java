@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * ProtocalTemplate.java at 2026-10-18 07:29:30, code by Jack Jiang.
+ */
+package net.openmob.mobileimsdk.server.protocal;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 预编码的协议包模板：对形态固定、只有个别字段（如接收方id、指纹码、dataContent）每次不同的服务端数据包
+ * （如心跳应答、ACK应答、登陆应答、错误应答），预先按JSON和二进制两种格式编码好其固定部分，
+ * 发送时只需依次拼上各可变字段，免去每次的JSON编码开销。
+ * 
+ * 模板以各可变字段为占位符的Protocal编码而来，编码结果与 ProtocalFactory.toJson() 及 ProtocalBinaryCodec.encode()
+ * 逐字节一致（JSON格式下可变字段按Gson默认的HTML安全规则转义）。只有与模板形态一致的Protocal才能用模板编码，
+ * 见 canEncode() 。
+ * 
+ * 本类是线程安全的。
+ */
+public class ProtocalTemplate
+{
+	/** 可变字段：dataContent **/
+	public final static int FIELD_DATA_CONTENT = 0x01;
+	/** 可变字段：from **/
+	public final static int FIELD_FROM = 0x02;
+	/** 可变字段：to **/
+	public final static int FIELD_TO = 0x04;
+	/** 可变字段：fp **/
+	public final static int FIELD_FP = 0x08;
+	/** 可变字段：sid（会话令牌，见 Protocal.getSid() ） **/
+	public final static int FIELD_SID = 0x10;
+	
+	/** 二进制格式中代替会话令牌的占位值 **/
+	private final static long SID_PLACEHOLDER = 0x4D42544D504C5349L;
+	
+	/** 固定字段的取值 **/
+	private final Protocal sample;
+	/** 可变字段（FIELD_*的组合） **/
+	private final int variableFields;
+	
+	/** JSON格式下各可变字段按出现先后的顺序，及其前后的固定片段（片段数比可变字段数多1） **/
+	private final int[] jsonFields;
+	private final byte[][] jsonSegments;
+	/** 二进制格式下同上 **/
+	private final int[] binaryFields;
+	private final byte[][] binarySegments;
+	
+	/**
+	 * 构造方法。
+	 * 
+	 * @param sample 模板的内容，其中可变字段的取值将被忽略
+	 * @param variableFields 可变字段，FIELD_*的组合
+	 */
+	public ProtocalTemplate(Protocal sample, int variableFields)
+	{
+		this.sample = (Protocal) sample.clone();
+		this.variableFields = variableFields;
+		
+		int count = Integer.bitCount(variableFields);
+		jsonFields = new int[count];
+		jsonSegments = new byte[count + 1][];
+		binaryFields = new int[count];
+		binarySegments = new byte[count + 1][];
+		
+		StringBuilder json = new StringBuilder();
+		ProtocalFactory.toJson(withPlaceholders(false), json);
+		split(getBytes(json.toString()), false, jsonFields, jsonSegments);
+		split(ProtocalBinaryCodec.encode(withPlaceholders(true)), true, binaryFields, binarySegments);
+	}
+	
+	/**
+	 * 判断p能否用本模板编码：p的固定字段须与模板一致，可变字段均不为null（会话令牌须合法）。
+	 * 
+	 * @param p
+	 * @return 为false时应改走普通的编码方式
+	 */
+	public boolean canEncode(Protocal p)
+	{
+		if(p.getType() != sample.getType() || p.isBridge() != sample.isBridge() 
+				|| p.isQoS() != sample.isQoS() || p.getTypeu() != sample.getTypeu())
+			return false;
+		
+		for(int field = FIELD_DATA_CONTENT; field <= FIELD_FP; field <<= 1)
+		{
+			String value = get(p, field);
+			if((variableFields & field) != 0 ? value == null : !equals(value, get(sample, field)))
+				return false;
+		}
+		
+		if((variableFields & FIELD_SID) != 0)
+			return Protocal.sidToToken(p.getSid()) != 0;
+		return p.getSid() == null;
+	}
+	
+	/**
+	 * 返回p用本模板编码后的字节数（须先确认 canEncode() 为true）。
+	 * @param p
+	 * @param binary 是否为二进制格式
+	 * @return
+	 */
+	public int encodedLength(Protocal p, boolean binary)
+	{
+		int[] fields = (binary ? binaryFields : jsonFields);
+		byte[][] segments = (binary ? binarySegments : jsonSegments);
+		
+		int length = segments[fields.length].length;
+		for(int i = 0; i < fields.length; i++)
+		{
+			length += segments[i].length;
+			if(fields[i] == FIELD_SID)
+				length += (binary ? 8 : jsonLength(p.getSid()));
+			else if(binary)
+			{
+				int len = ProtocalBinaryCodec.utf8Length(get(p, fields[i]));
+				length += varintLength(len + 1) + len;
+			}
+			else
+				length += jsonLength(get(p, fields[i]));
+		}
+		return length;
+	}
+	
+	/**
+	 * 用本模板将p编码写入dst（须先确认 canEncode() 为true，dst的剩余空间应不小于 encodedLength()）。
+	 * @param p
+	 * @param binary 是否为二进制格式
+	 * @param dst
+	 */
+	public void encode(Protocal p, boolean binary, ByteBuffer dst)
+	{
+		int[] fields = (binary ? binaryFields : jsonFields);
+		byte[][] segments = (binary ? binarySegments : jsonSegments);
+		
+		for(int i = 0; i < fields.length; i++)
+		{
+			dst.put(segments[i]);
+			if(fields[i] == FIELD_SID)
+			{
+				if(binary)
+					dst.putLong(Protocal.sidToToken(p.getSid()));
+				else
+					writeJson(dst, p.getSid());
+			}
+			else if(binary)
+			{
+				String value = get(p, fields[i]);
+				writeVarint(dst, ProtocalBinaryCodec.utf8Length(value) + 1);
+				ProtocalBinaryCodec.writeUtf8(dst, value);
+			}
+			else
+				writeJson(dst, get(p, fields[i]));
+		}
+		dst.put(segments[fields.length]);
+	}
+	
+	/**
+	 * 生成以占位符代替各可变字段的Protocal：字符串字段的占位符为"#MB_TPL_<字段>#"（编码后不含需转义的字符，且长度小于127，
+	 * 因而二进制格式下其长度前缀只占1个字节），会话令牌在二进制格式下则为 SID_PLACEHOLDER 。
+	 */
+	private Protocal withPlaceholders(boolean binary)
+	{
+		Protocal p = (Protocal) sample.clone();
+		for(int field = FIELD_DATA_CONTENT; field <= FIELD_FP; field <<= 1)
+		{
+			if((variableFields & field) != 0)
+				set(p, field, placeholder(field));
+		}
+		if((variableFields & FIELD_SID) != 0)
+			p.setSid(binary ? Protocal.sidToString(SID_PLACEHOLDER) : placeholder(FIELD_SID));
+		return p;
+	}
+	
+	private void split(byte[] bytes, boolean binary, int[] fields, byte[][] segments)
+	{
+		// 找出各占位符的位置，并按出现的先后排序
+		int[][] found = new int[fields.length][];
+		int n = 0;
+		for(int field = FIELD_DATA_CONTENT; field <= FIELD_SID; field <<= 1)
+		{
+			if((variableFields & field) == 0)
+				continue;
+			
+			int begin, end;
+			if(binary && field == FIELD_SID)
+			{
+				byte[] token = ByteBuffer.allocate(8).putLong(SID_PLACEHOLDER).array();
+				begin = indexOf(bytes, token);
+				end = begin + token.length;
+			}
+			else
+			{
+				byte[] placeholder = getBytes(placeholder(field));
+				begin = indexOf(bytes, placeholder);
+				end = begin + placeholder.length;
+				// 二进制格式的字符串字段连同其1个字节的长度前缀一起作为可变部分
+				if(binary)
+					begin--;
+			}
+			found[n++] = new int[]{begin, end, field};
+		}
+		Arrays.sort(found, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] a, int[] b)
+			{
+				return a[0] - b[0];
+			}
+		});
+		
+		int from = 0;
+		for(int i = 0; i < found.length; i++)
+		{
+			segments[i] = Arrays.copyOfRange(bytes, from, found[i][0]);
+			fields[i] = found[i][2];
+			from = found[i][1];
+		}
+		segments[found.length] = Arrays.copyOfRange(bytes, from, bytes.length);
+	}
+	
+	private static String placeholder(int field)
+	{
+		return "#MB_TPL_" + field + "#";
+	}
+	
+	private static String get(Protocal p, int field)
+	{
+		switch(field)
+		{
+			case FIELD_DATA_CONTENT:
+				return p.getDataContent();
+			case FIELD_FROM:
+				return p.getFrom();
+			case FIELD_TO:
+				return p.getTo();
+			default:
+				return p.getFp();
+		}
+	}
+	
+	private static void set(Protocal p, int field, String value)
+	{
+		switch(field)
+		{
+			case FIELD_DATA_CONTENT:
+				p.setDataContent(value);
+				break;
+			case FIELD_FROM:
+				p.setFrom(value);
+				break;
+			case FIELD_TO:
+				p.setTo(value);
+				break;
+			default:
+				p.setFp(value);
+				break;
+		}
+	}
+	
+	private static boolean equals(String a, String b)
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+	
+	/**
+	 * 返回字符串按Gson默认规则转义后（不含两端引号）的UTF-8字节数。
+	 */
+	private static int jsonLength(String s)
+	{
+		int len = 0;
+		for(int i = 0, n = s.length(); i < n; i++)
+		{
+			char c = s.charAt(i);
+			String escaped = escape(c);
+			if(escaped != null)
+				len += escaped.length();
+			else if(c < 0x80)
+				len += 1;
+			else if(c < 0x800)
+				len += 2;
+			else if(Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1)))
+			{
+				len += 4;
+				i++;
+			}
+			else if(Character.isSurrogate(c))
+				// 落单的代理字符按'?'处理（见 ProtocalBinaryCodec.writeUtf8() ）
+				len += 1;
+			else
+				len += 3;
+		}
+		return len;
+	}
+	
+	/**
+	 * 将字符串按Gson默认规则转义后（不含两端引号）以UTF-8编码写入dst。
+	 */
+	private static void writeJson(ByteBuffer dst, String s)
+	{
+		int last = 0, n = s.length();
+		for(int i = 0; i < n; i++)
+		{
+			String escaped = escape(s.charAt(i));
+			if(escaped == null)
+				continue;
+			if(last < i)
+				ProtocalBinaryCodec.writeUtf8(dst, s.substring(last, i));
+			for(int j = 0; j < escaped.length(); j++)
+				dst.put((byte) escaped.charAt(j));
+			last = i + 1;
+		}
+		if(last < n)
+			ProtocalBinaryCodec.writeUtf8(dst, last == 0 ? s : s.substring(last));
+	}
+	
+	/**
+	 * Gson（HTML安全模式，即其默认模式）对单个字符的转义规则。
+	 * @return 转义后的字符串，无需转义时返回null
+	 */
+	private static String escape(char c)
+	{
+		switch(c)
+		{
+			case '"':
+				return "\\\"";
+			case '\\':
+				return "\\\\";
+			case '\t':
+				return "\\t";
+			case '\b':
+				return "\\b";
+			case '\n':
+				return "\\n";
+			case '\r':
+				return "\\r";
+			case '\f':
+				return "\\f";
+			case '<':
+			case '>':
+			case '&':
+			case '=':
+			case '\'':
+			case '\u2028':
+			case '\u2029':
+				return unicodeEscape(c);
+			default:
+				return (c < 0x20 ? unicodeEscape(c) : null);
+		}
+	}
+	
+	private static String unicodeEscape(char c)
+	{
+		String hex = Integer.toHexString(c);
+		return "\\u" + "0000".substring(hex.length()) + hex;
+	}
+	
+	private static void writeVarint(ByteBuffer dst, int v)
+	{
+		while((v & ~0x7F) != 0)
+		{
+			dst.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		dst.put((byte) v);
+	}
+	
+	private static int varintLength(int v)
+	{
+		int len = 1;
+		while((v & ~0x7F) != 0)
+		{
+			v >>>= 7;
+			len++;
+		}
+		return len;
+	}
+	
+	private static byte[] getBytes(String s)
+	{
+		try
+		{
+			return s.getBytes(CharsetHelper.ENCODE_CHARSET);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static int indexOf(byte[] bytes, byte[] target)
+	{
+		outer:
+		for(int i = 0; i + target.length <= bytes.length; i++)
+		{
+			for(int j = 0; j < target.length; j++)
+			{
+				if(bytes[i + j] != target[j])
+					continue outer;
+			}
+			return i;
+		}
+		throw new IllegalStateException("模板中未找到占位符");
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * FingerPrintSet.java at 2026-10-18 06:37:08, code by Jack Jiang.
+ */
+package net.openmob.mobileimsdk.server.qos;
+
+import java.util.HashSet;
+
+/**
+ * 供QoS接收方进行重复包判断用的指纹集合，按"代"进行有限生命周期的存储。
+ * 
+ * 与以String为key的Map相比，本类的特点是：
+ * 1）标准UUID格式的指纹（即客户端默认生成的指纹）以两个long的形式存放在基本类型的开放寻址表中，不保留任何String对象；
+ *    其它格式的指纹则退化为存放在普通的HashSet中；
+ * 2）过期时无需逐条扫描，调用 rotate() 即整代丢弃最老的一代，新加入的指纹总是放在当前代中；
+ * 3）按指纹的hash分段加锁，addIfAbsent() 是原子的"判断+加入"操作。
+ * 
+ * 注意：UUID格式的指纹按其数值比较，因此仅大小写不同的两个UUID指纹会被视为同一个指纹。
+ */
+public class FingerPrintSet
+{
+	private final static int STRIPE_COUNT = 64;
+	private final static int INITIAL_CAPACITY = 64;
+	
+	private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+	private final int generationCount;
+	
+	/**
+	 * @param generationCount 同时保留的代数（>=2），每次 rotate() 丢弃最老的一代
+	 */
+	public FingerPrintSet(int generationCount)
+	{
+		this.generationCount = Math.max(2, generationCount);
+		for(int i = 0; i < STRIPE_COUNT; i++)
+			stripes[i] = new Stripe(this.generationCount);
+	}
+	
+	/**
+	 * 原子地判断指纹是否已存在，不存在则将其加入当前代；已存在于较老的代中时会将其刷新到当前代，以延长其生命周期。
+	 * @param fp
+	 * @return true表示首次加入，false表示指纹已存在（即重复）
+	 */
+	public boolean addIfAbsent(String fp)
+	{
+		if(isUUID(fp))
+		{
+			long hi = parseHex(fp, 0, 18);
+			long lo = parseHex(fp, 19, 36);
+			if(hi != 0 || lo != 0)
+			{
+				int hash = hash(hi, lo);
+				Stripe stripe = stripes[hash & (STRIPE_COUNT - 1)];
+				synchronized(stripe)
+				{
+					return stripe.addIfAbsent(hi, lo, hash);
+				}
+			}
+		}
+		
+		Stripe stripe = stripes[hash(fp.hashCode(), 0) & (STRIPE_COUNT - 1)];
+		synchronized(stripe)
+		{
+			return stripe.addIfAbsent(fp);
+		}
+	}
+	
+	public boolean contains(String fp)
+	{
+		if(isUUID(fp))
+		{
+			long hi = parseHex(fp, 0, 18);
+			long lo = parseHex(fp, 19, 36);
+			if(hi != 0 || lo != 0)
+			{
+				int hash = hash(hi, lo);
+				Stripe stripe = stripes[hash & (STRIPE_COUNT - 1)];
+				synchronized(stripe)
+				{
+					return stripe.contains(hi, lo, hash);
+				}
+			}
+		}
+		
+		Stripe stripe = stripes[hash(fp.hashCode(), 0) & (STRIPE_COUNT - 1)];
+		synchronized(stripe)
+		{
+			return stripe.contains(fp);
+		}
+	}
+	
+	/**
+	 * 开始新的一代，并整代丢弃最老的一代。
+	 */
+	public void rotate()
+	{
+		for(Stripe stripe : stripes)
+		{
+			synchronized(stripe)
+			{
+				stripe.rotate();
+			}
+		}
+	}
+	
+	/**
+	 * 返回各代中的指纹总数（被刷新过的指纹可能在多代中各计一次，因而是个近似值）。
+	 * @return
+	 */
+	public int size()
+	{
+		int size = 0;
+		for(Stripe stripe : stripes)
+		{
+			synchronized(stripe)
+			{
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+	
+	public int getGenerationCount()
+	{
+		return generationCount;
+	}
+	
+	/**
+	 * 是否为形如"xxxxxxxx-xxxx-xxxx-xxxx-xxxxxxxxxxxx"的UUID字符串。
+	 */
+	static boolean isUUID(String s)
+	{
+		if(s.length() != 36)
+			return false;
+		for(int i = 0; i < 36; i++)
+		{
+			char c = s.charAt(i);
+			if(i == 8 || i == 13 || i == 18 || i == 23)
+			{
+				if(c != '-')
+					return false;
+			}
+			else if(Character.digit(c, 16) < 0)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * 将[start, end)区间内的16进制数字（跳过'-'）解析为一个long。
+	 */
+	private static long parseHex(String s, int start, int end)
+	{
+		long v = 0;
+		for(int i = start; i < end; i++)
+		{
+			char c = s.charAt(i);
+			if(c != '-')
+				v = (v << 4) | Character.digit(c, 16);
+		}
+		return v;
+	}
+	
+	private static int hash(long hi, long lo)
+	{
+		long h = hi * 0x9E3779B97F4A7C15L + lo;
+		h ^= (h >>> 33);
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= (h >>> 33);
+		return (int) h;
+	}
+	
+	/**
+	 * 一个分段：持有各代的UUID表和非UUID指纹集合，其方法均在持有本分段的锁时调用。
+	 */
+	private static final class Stripe
+	{
+		private final LongPairTable[] tables;
+		private final HashSet<?>[] others;
+		private int current = 0;
+		
+		Stripe(int generationCount)
+		{
+			tables = new LongPairTable[generationCount];
+			others = new HashSet<?>[generationCount];
+			for(int i = 0; i < generationCount; i++)
+				tables[i] = new LongPairTable(INITIAL_CAPACITY);
+		}
+		
+		boolean addIfAbsent(long hi, long lo, int hash)
+		{
+			if(tables[current].contains(hi, lo, hash))
+				return false;
+			boolean existed = contains(hi, lo, hash);
+			tables[current].add(hi, lo, hash);
+			return !existed;
+		}
+		
+		boolean contains(long hi, long lo, int hash)
+		{
+			for(LongPairTable table : tables)
+			{
+				if(table.contains(hi, lo, hash))
+					return true;
+			}
+			return false;
+		}
+		
+		@SuppressWarnings("unchecked")
+		boolean addIfAbsent(String fp)
+		{
+			HashSet<String> set = (HashSet<String>) others[current];
+			if(set == null)
+			{
+				set = new HashSet<String>();
+				others[current] = set;
+			}
+			else if(set.contains(fp))
+				return false;
+			boolean existed = contains(fp);
+			set.add(fp);
+			return !existed;
+		}
+		
+		boolean contains(String fp)
+		{
+			for(HashSet<?> set : others)
+			{
+				if(set != null && set.contains(fp))
+					return true;
+			}
+			return false;
+		}
+		
+		void rotate()
+		{
+			current = (current + 1) % tables.length;
+			// 被丢弃的那一代正是新的当前代，按它原有的规模预分配以减少扩容
+			tables[current] = new LongPairTable(tables[current].size());
+			others[current] = null;
+		}
+		
+		int size()
+		{
+			int size = 0;
+			for(int i = 0; i < tables.length; i++)
+			{
+				size += tables[i].size();
+				if(others[i] != null)
+					size += others[i].size();
+			}
+			return size;
+		}
+	}
+	
+	/**
+	 * 以(hi, lo)两个long为key的开放寻址（线性探测）集合，(0, 0)用作空槽标记。
+	 */
+	private static final class LongPairTable
+	{
+		private long[] keys;
+		private int mask;
+		private int size = 0;
+		
+		LongPairTable(int expectedSize)
+		{
+			int capacity = INITIAL_CAPACITY;
+			while(capacity * 3 / 4 <= expectedSize)
+				capacity <<= 1;
+			keys = new long[capacity * 2];
+			mask = capacity - 1;
+		}
+		
+		boolean contains(long hi, long lo, int hash)
+		{
+			for(int i = (hash >>> 6) & mask; ; i = (i + 1) & mask)
+			{
+				long khi = keys[i << 1], klo = keys[(i << 1) + 1];
+				if(khi == 0 && klo == 0)
+					return false;
+				if(khi == hi && klo == lo)
+					return true;
+			}
+		}
+		
+		void add(long hi, long lo, int hash)
+		{
+			if((size + 1) * 4 > (mask + 1) * 3)
+				grow();
+			
+			for(int i = (hash >>> 6) & mask; ; i = (i + 1) & mask)
+			{
+				long khi = keys[i << 1], klo = keys[(i << 1) + 1];
+				if(khi == 0 && klo == 0)
+				{
+					keys[i << 1] = hi;
+					keys[(i << 1) + 1] = lo;
+					size++;
+					return;
+				}
+				if(khi == hi && klo == lo)
+					return;
+			}
+		}
+		
+		private void grow()
+		{
+			long[] old = keys;
+			keys = new long[old.length * 2];
+			mask = (keys.length >> 1) - 1;
+			size = 0;
+			for(int i = 0; i < old.length; i += 2)
+			{
+				if(old[i] != 0 || old[i + 1] != 0)
+					add(old[i], old[i + 1], hash(old[i], old[i + 1]));
+			}
+		}
+		
+		int size()
+		{
+			return size;
+		}
+	}
+}
@@ -16,12 +16,8 @@
  */
 package net.openmob.mobileimsdk.server.qos;
 
-import java.util.Iterator;
-import java.util.Map.Entry;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import net.openmob.mobileimsdk.server.protocal.Protocal;
 
@@ -30,6 +26,9 @@ import org.slf4j.LoggerFactory;
 
 /**
  * 用于服务端的S2C模式下的QoS机制中提供对已收到包进行有限生命周期存储并提供 重复性判断的守护线程。
+ *
+ * 已收到包的指纹存放在按"代"管理的 FingerPrintSet 中：定时器每 CHECH_INTERVAL 开始新的一代并整代丢弃最老的一代，
+ * 因而每个指纹会被保留 MESSAGES_VALID_TIME 至 MESSAGES_VALID_TIME + CHECH_INTERVAL 之间的时长，过期时无需逐条扫描。
  */
 public class QoS4ReciveDaemonRoot
 {
@@ -38,9 +37,8 @@ public class QoS4ReciveDaemonRoot
 	private boolean DEBUG = false;
 	private int CHECH_INTERVAL = 5 * 60 * 1000; // 5分钟
 	private int MESSAGES_VALID_TIME = 10 * 60 * 1000; // 10分钟
-	private ConcurrentMap<String, Long> recievedMessages = new ConcurrentHashMap<String, Long>();
+	private FingerPrintSet recievedMessages = null;
 	private Timer timer = null;
-	private Runnable runnable = null;
 	private boolean _excuting = false;
 	private String debugTag = "";
 	
@@ -53,6 +51,10 @@ public class QoS4ReciveDaemonRoot
 			this.MESSAGES_VALID_TIME = MESSAGES_VALID_TIME;
 		this.DEBUG = DEBUG;
 		this.debugTag = debugTag;
+		
+		// 保留的代数：保证每个指纹至少存活MESSAGES_VALID_TIME
+		int generations = (this.MESSAGES_VALID_TIME + this.CHECH_INTERVAL - 1) / this.CHECH_INTERVAL + 1;
+		this.recievedMessages = new FingerPrintSet(generations);
 	}
 	
 	private void doTaskOnece()
@@ -64,25 +66,12 @@ public class QoS4ReciveDaemonRoot
 			if(DEBUG)
 				logger.debug("【IMCORE"+this.debugTag+"】【QoS接收方】++++++++++ START 暂存处理线程正在运行中，当前长度"+recievedMessages.size()+".");
 			
-			Iterator<Entry<String, Long>> entryIt = recievedMessages.entrySet().iterator();  
-		    while(entryIt.hasNext())
-		    {  
-		        Entry<String, Long> entry = entryIt.next();  
-		        String key = entry.getKey();  
-		        long value = entry.getValue();
-		        long delta = System.currentTimeMillis() - value;
-				if(delta >= MESSAGES_VALID_TIME)
-				{
-					if(DEBUG)
-						logger.debug("【IMCORE"+this.debugTag+"】【QoS接收方】指纹为"+key+"的包已生存"+delta
-							+"ms(最大允许"+MESSAGES_VALID_TIME+"ms), 马上将删除之.");
-					recievedMessages.remove(key);
-				}
-		    }  
+			recievedMessages.rotate();
 		}
 
 		if(DEBUG)
-			logger.debug("【IMCORE"+this.debugTag+"】【QoS接收方】++++++++++ END 暂存处理线程正在运行中，当前长度"+recievedMessages.size()+".");
+			logger.debug("【IMCORE"+this.debugTag+"】【QoS接收方】++++++++++ END 暂存处理线程正在运行中，已丢弃生存超过"
+					+(recievedMessages.getGenerationCount() - 1) * CHECH_INTERVAL+"ms的一代，当前长度"+recievedMessages.size()+".");
 	
 		_excuting = false;
 	}
@@ -91,14 +80,6 @@ public class QoS4ReciveDaemonRoot
 	{
 		stop();
 		
-		if(recievedMessages != null && recievedMessages.size() > 0)
-		{
-			for(String key : recievedMessages.keySet())
-			{
-				putImpl(key);
-			}
-		}
-		
 		timer = new Timer();
 		timer.scheduleAtFixedRate(new TimerTask() 
 		{
@@ -137,28 +118,32 @@ public class QoS4ReciveDaemonRoot
 	}
 	public void addRecieved(String fingerPrintOfProtocal)
 	{
-		if(fingerPrintOfProtocal == null)
-		{
-			logger.debug("【IMCORE"+this.debugTag+"】无效的 fingerPrintOfProtocal==null!");
-			return;
-		}
-		
-		if(recievedMessages.containsKey(fingerPrintOfProtocal))
+		if(!addRecievedIfAbsent(fingerPrintOfProtocal))
 			logger.debug("【IMCORE"+this.debugTag+"】【QoS接收方】指纹为"+fingerPrintOfProtocal
 					+"的消息已经存在于接收列表中，该消息重复了（原理可能是对方因未收到应答包而错误重传导致），更新收到时间戳哦.");
-		
-		putImpl(fingerPrintOfProtocal);
 	}
 	
-	private void putImpl(String fingerPrintOfProtocal)
+	/**
+	 * 原子地完成"是否已收到过"的判断和记录：未收到过则记录之，已收到过则刷新其记录时间。
+	 * 用于替代先 hasRecieved() 再 addRecieved() 的两步调用（两步之间并发收到的重复包会被漏判）。
+	 * 
+	 * @param fingerPrintOfProtocal
+	 * @return true表示首次收到，false表示重复包
+	 */
+	public boolean addRecievedIfAbsent(String fingerPrintOfProtocal)
 	{
-		if(fingerPrintOfProtocal != null)
-			recievedMessages.put(fingerPrintOfProtocal, System.currentTimeMillis());
+		if(fingerPrintOfProtocal == null)
+		{
+			logger.debug("【IMCORE"+this.debugTag+"】无效的 fingerPrintOfProtocal==null!");
+			return true;
+		}
+		
+		return recievedMessages.addIfAbsent(fingerPrintOfProtocal);
 	}
 	
 	public boolean hasRecieved(String fingerPrintOfProtocal)
 	{
-		return recievedMessages.containsKey(fingerPrintOfProtocal);
+		return fingerPrintOfProtocal != null && recievedMessages.contains(fingerPrintOfProtocal);
 	}
 	
 	public int size()
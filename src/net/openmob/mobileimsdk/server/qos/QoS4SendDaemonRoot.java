@@ -17,12 +17,13 @@
 package net.openmob.mobileimsdk.server.qos;
 
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import net.nettime.mobileimsdk.server.netty.MBObserver;
 import net.openmob.mobileimsdk.server.ServerLauncher;
@@ -54,15 +55,22 @@ import org.slf4j.LoggerFactory;
  *  4）其它更多情况。
  *
  * 当前MobileIMSDK的QoS机制支持全部的C2C、C2S、S2C共3种消息交互场景下的消息送达质量保证.
+ *
+ * 实现说明：待确认的消息以一条 PendingMessage 记录按其下次重传（或判定丢包）的时间挂在一个哈希时间轮上，
+ * 定时器每 WHEEL_TICK_DURATION 毫秒推进一格，只处理当前格内已到期的记录，因而每次检查的开销只与到期的消息数
+ * 有关、而与全部待确认的消息总数无关。每条消息在距上次发出满 CHECH_INTERVAL（且不少于 MESSAGES_JUST$NOW_TIME）
+ * 时被重传，重传次数达到 QOS_TRY_COUNT 后的下一次到期即判定为丢包。
  */
 public class QoS4SendDaemonRoot
 {
 	private static Logger logger = LoggerFactory.getLogger(QoS4SendDaemonRoot.class);  
 	
+	/** 时间轮每一格的时长（单位：毫秒） **/
+	public final static int WHEEL_TICK_DURATION = 100;
+	
 	private boolean DEBUG = false;
 	private ServerLauncher serverLauncher = null;
-	private ConcurrentMap<String, Protocal> sentMessages = new ConcurrentHashMap<String, Protocal>();
-	private ConcurrentMap<String, Long> sendMessagesTimestamp = new ConcurrentHashMap<String, Long>();
+	private ConcurrentMap<String, PendingMessage> sentMessages = new ConcurrentHashMap<String, PendingMessage>();
 	private int CHECH_INTERVAL = 5000;
 	private int MESSAGES_JUST$NOW_TIME = 2 * 1000;
 	private int QOS_TRY_COUNT = 1;
@@ -70,6 +78,13 @@ public class QoS4SendDaemonRoot
 	private Timer timer = null;
 	private String debugTag = "";
 	
+	/** 新放入（或需重新排期）的记录，由定时器线程在每次推进时挂到时间轮上，时间轮本身只由定时器线程访问 **/
+	private final ConcurrentLinkedQueue<PendingMessage> pendingSchedule = new ConcurrentLinkedQueue<PendingMessage>();
+	private List<List<PendingMessage>> wheel = null;
+	private int wheelMask = 0;
+	/** 时间轮上最后一次处理过的格子（绝对格号，即 时间/WHEEL_TICK_DURATION） **/
+	private long lastTick = -1;
+	
 	public QoS4SendDaemonRoot(int CHECH_INTERVAL
 			, int MESSAGES_JUST$NOW_TIME
 			, int QOS_TRY_COUNT
@@ -83,6 +98,36 @@ public class QoS4SendDaemonRoot
 			this.QOS_TRY_COUNT = QOS_TRY_COUNT;
 		this.DEBUG = DEBUG;
 		this.debugTag = debugTag;
+		
+		initWheel();
+	}
+	
+	private void initWheel()
+	{
+		// 时间轮一圈的时长须大于重传间隔，以保证每条记录都在一圈之内到期
+		int ticks = getRetryInterval() / WHEEL_TICK_DURATION + 2;
+		int size = 1;
+		while(size < ticks)
+			size <<= 1;
+		
+		wheel = new ArrayList<List<PendingMessage>>(size);
+		for(int i = 0; i < size; i++)
+			wheel.add(new ArrayList<PendingMessage>());
+		wheelMask = size - 1;
+	}
+	
+	/**
+	 * 每条消息两次发送之间的间隔（单位：毫秒）。
+	 * @return
+	 */
+	private int getRetryInterval()
+	{
+		return Math.max(CHECH_INTERVAL, MESSAGES_JUST$NOW_TIME);
+	}
+	
+	private static long now()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
 	}
 	
 	private void doTaskOnece()
@@ -93,73 +138,22 @@ public class QoS4SendDaemonRoot
 			_excuting = true;
 			try
 			{
-				if(DEBUG && sentMessages.size() > 0)
-					logger.debug("【IMCORE-netty"+this.debugTag+"】【QoS发送方】=========== 消息发送质量保证线程运行中, 当前需要处理的列表长度为"+sentMessages.size()+"...");
-
-				Iterator<Entry<String, Protocal>> entryIt = sentMessages.entrySet().iterator();  
-			    while(entryIt.hasNext())
-			    {  
-			        Entry<String, Protocal> entry = entryIt.next();  
-			        String key = entry.getKey();  
-			        final Protocal p = entry.getValue();
-			        
-					if(p != null && p.isQoS())
-					{
-						if(p.getRetryCount() >= QOS_TRY_COUNT)
-						{
-							if(DEBUG)
-								logger.debug("【IMCORE-netty"+this.debugTag+"】【QoS发送方】指纹为"+p.getFp()
-										+"的消息包重传次数已达"+p.getRetryCount()+"(最多"+QOS_TRY_COUNT+"次)上限，将判定为丢包！");
-
-							lostMessages.add((Protocal)p.clone());
-							remove(p.getFp());
-						}
-						else
-						{
-							long delta = System.currentTimeMillis() - sendMessagesTimestamp.get(key);
-							if(delta <= MESSAGES_JUST$NOW_TIME)
-							{
-								if(DEBUG)
-									logger.warn("【IMCORE-netty"+this.debugTag+"】【QoS发送方】指纹为"+key+"的包距\"刚刚\"发出才"+delta
-										+"ms(<="+MESSAGES_JUST$NOW_TIME+"ms将被认定是\"刚刚\"), 本次不需要重传哦.");
-							}
-							else
-							{
-								MBObserver sendResultObserver = new MBObserver(){
-									@Override
-									public void update(boolean sendOK, Object extraObj)
-									{
-										if(sendOK)
-										{
-											if(DEBUG)
-											{
-												logger.debug("【IMCORE-netty"+debugTag+"】【QoS发送方】指纹为"+p.getFp()
-														+"的消息包已成功进行重传，此次之后重传次数已达"
-														+p.getRetryCount()+"(最多"+QOS_TRY_COUNT+"次).");
-											}
-										}
-										else
-										{
-											if(DEBUG)
-											{
-												logger.warn("【IMCORE-netty"+debugTag+"】【QoS发送方】指纹为"+p.getFp()
-														+"的消息包重传失败，它的重传次数之前已累计为"
-														+p.getRetryCount()+"(最多"+QOS_TRY_COUNT+"次).");
-											}
-										}
-									}
-								};
-								
-								LocalSendHelper.sendData(p, sendResultObserver);
-								p.increaseRetryCount();
-							}
-						}
-					}
-					else
-					{
-						remove(key);
-					}
-				}
+				long now = now();
+				long currentTick = now / WHEEL_TICK_DURATION;
+				if(lastTick < 0)
+					lastTick = currentTick - 1;
+				
+				transferPendingSchedule();
+				
+				// 定时器被延误时，补处理错过的格子（最多一整圈）
+				int dueCount = 0;
+				long fromTick = Math.max(lastTick + 1, currentTick - wheelMask);
+				for(long tick = fromTick; tick <= currentTick; tick++)
+					dueCount += processBucket(wheel.get((int) (tick & wheelMask)), now, lostMessages);
+				lastTick = currentTick;
+				
+				if(DEBUG && dueCount > 0)
+					logger.debug("【IMCORE-netty"+this.debugTag+"】【QoS发送方】=========== 消息发送质量保证线程运行中, 本次到期"+dueCount+"条，当前待确认的列表长度为"+sentMessages.size()+"...");
 			}
 			catch (Exception eee)
 			{
@@ -174,6 +168,103 @@ public class QoS4SendDaemonRoot
 		}
 	}
 	
+	/**
+	 * 将新放入的记录挂到时间轮上（只在定时器线程中调用）。
+	 */
+	private void transferPendingSchedule()
+	{
+		PendingMessage pm = null;
+		while((pm = pendingSchedule.poll()) != null)
+		{
+			if(pm.removed)
+				continue;
+			// 已到期（或落在已处理过的格子上）的记录放到下一个要处理的格子里
+			long tick = Math.max(pm.deadline / WHEEL_TICK_DURATION, lastTick + 1);
+			wheel.get((int) (tick & wheelMask)).add(pm);
+		}
+	}
+	
+	/**
+	 * 处理时间轮上的一个格子：已到期的记录进行重传或判定丢包，未到期的（属于以后的圈次）原样保留。
+	 * @return 本格中已到期的记录数
+	 */
+	private int processBucket(List<PendingMessage> bucket, long now, ArrayList<Protocal> lostMessages)
+	{
+		int kept = 0;
+		int due = 0;
+		for(int i = 0, size = bucket.size(); i < size; i++)
+		{
+			PendingMessage pm = bucket.get(i);
+			if(pm.removed)
+				continue;
+			
+			if(pm.deadline > now)
+			{
+				bucket.set(kept++, pm);
+				continue;
+			}
+			
+			due++;
+			final Protocal p = pm.protocal;
+			if(p.getRetryCount() >= QOS_TRY_COUNT)
+			{
+				if(DEBUG)
+					logger.debug("【IMCORE-netty"+this.debugTag+"】【QoS发送方】指纹为"+p.getFp()
+							+"的消息包重传次数已达"+p.getRetryCount()+"(最多"+QOS_TRY_COUNT+"次)上限，将判定为丢包！");
+
+				lostMessages.add((Protocal)p.clone());
+				// 只移除本记录（期间同一指纹若被重新put，新的记录不受影响）
+				sentMessages.remove(p.getFp(), pm);
+				pm.removed = true;
+			}
+			else
+			{
+				// 结果回调只用于输出调试日志，未开启DEBUG时就不必为每次重传创建它了
+				MBObserver sendResultObserver = null;
+				if(DEBUG)
+				{
+					sendResultObserver = new MBObserver(){
+						@Override
+						public void update(boolean sendOK, Object extraObj)
+						{
+							if(sendOK)
+							{
+								logger.debug("【IMCORE-netty"+debugTag+"】【QoS发送方】指纹为"+p.getFp()
+										+"的消息包已成功进行重传，此次之后重传次数已达"
+										+p.getRetryCount()+"(最多"+QOS_TRY_COUNT+"次).");
+							}
+							else
+							{
+								logger.warn("【IMCORE-netty"+debugTag+"】【QoS发送方】指纹为"+p.getFp()
+										+"的消息包重传失败，它的重传次数之前已累计为"
+										+p.getRetryCount()+"(最多"+QOS_TRY_COUNT+"次).");
+							}
+						}
+					};
+				}
+				
+				try
+				{
+					LocalSendHelper.sendData(p, sendResultObserver);
+				}
+				catch (Exception e)
+				{
+					if(DEBUG)
+						logger.warn("【IMCORE-netty"+this.debugTag+"】【QoS发送方】指纹为"+p.getFp()+"的消息包重传时出错了,"+e.getMessage(), e);
+				}
+				p.increaseRetryCount();
+				
+				pm.deadline = now + getRetryInterval();
+				pendingSchedule.add(pm);
+			}
+		}
+		
+		// 清理掉已处理（或已被移除）的记录
+		for(int i = bucket.size() - 1; i >= kept; i--)
+			bucket.remove(i);
+		return due;
+	}
+	
 	protected void notifyMessageLost(ArrayList<Protocal> lostMessages)
 	{
 		if(serverLauncher != null && serverLauncher.getServerMessageQoSEventListener() != null)
@@ -193,8 +284,8 @@ public class QoS4SendDaemonRoot
 				doTaskOnece();
 			}
 		}
-		, immediately ? 0 : CHECH_INTERVAL
-		, CHECH_INTERVAL);
+		, immediately ? 0 : WHEEL_TICK_DURATION
+		, WHEEL_TICK_DURATION);
 		
 		logger.debug("【IMCORE-netty"+this.debugTag+"】【QoS发送方】=========== 消息发送质量保证线程已成功启动");
 		
@@ -246,25 +337,58 @@ public class QoS4SendDaemonRoot
 			return;
 		}
 		
-		if(sentMessages.get(p.getFp()) != null)
+		PendingMessage pm = new PendingMessage(p, now() + getRetryInterval());
+		PendingMessage old = sentMessages.put(p.getFp(), pm);
+		if(old != null)
 		{
+			old.removed = true;
 			if(DEBUG)
 				logger.warn("【IMCORE-netty"+this.debugTag+"】【QoS发送方】指纹为"+p.getFp()+"的消息已经放入了发送质量保证队列，该消息为何会重复？（生成的指纹码重复？还是重复put？）");
 		}
+		pendingSchedule.add(pm);
+	}
+	
+	/**
+	 * 收到接收方的应答后移除待确认的消息：只有应答来自该消息的接收方时才移除，以免他人凭猜测的指纹码取消别人消息的重传。
+	 * 
+	 * @param fingerPrint 应答中的指纹码
+	 * @param receiverId 发出应答的用户id（应取自其已登陆的会话，而非应答包中可被伪造的from字段）
+	 * @return false表示该消息仍在队列中、而应答者不是其接收方，本次应答被忽略；其它情况（已移除，或消息已不在队列中，
+	 * 如重复的应答、或消息已被判定为未送达后才迟到的应答）均返回true
+	 */
+	public boolean removeAcked(String fingerPrint, String receiverId)
+	{
+		PendingMessage pm = sentMessages.get(fingerPrint);
+		if(pm == null)
+			return true;
 		
-		sentMessages.put(p.getFp(), p);
-		sendMessagesTimestamp.put(p.getFp(), System.currentTimeMillis());
+		if(receiverId == null || !receiverId.equals(pm.protocal.getTo()))
+		{
+			logger.warn("【IMCORE-netty"+this.debugTag+"】【QoS发送方】用户"+receiverId+"发来了指纹为"+fingerPrint
+					+"的应答，但该消息的接收方是"+pm.protocal.getTo()+"，本次应答被忽略！");
+			return false;
+		}
+		
+		if(!sentMessages.remove(fingerPrint, pm))
+			return true;
+		pm.removed = true;
+		if(DEBUG)
+			logger.debug("【IMCORE-netty"+this.debugTag+"】【QoS发送方】指纹为"+fingerPrint+"的消息已收到接收方的应答，已从发送质量保证队列中移除，重试次数="
+					+pm.protocal.getRetryCount());
+		return true;
 	}
 	
 	public void remove(final String fingerPrint)
 	{
 		try
 		{
-			sendMessagesTimestamp.remove(fingerPrint);
-			Object result = sentMessages.remove(fingerPrint);
+			PendingMessage result = sentMessages.remove(fingerPrint);
+			// 时间轮上的记录无需查找删除，打上标记后由定时器线程在处理到它时丢弃即可
+			if(result != null)
+				result.removed = true;
 			if(DEBUG)
 				logger.warn("【IMCORE-netty"+this.debugTag+"】【QoS发送方】指纹为"+fingerPrint+"的消息已成功从发送质量保证队列中移除(可能是收到接收方的应答也可能是达到了重传的次数上限)，重试次数="
-						+(result != null?((Protocal)result).getRetryCount():"none呵呵."));
+						+(result != null?result.protocal.getRetryCount():"none呵呵."));
 		}
 		catch (Exception e)
 		{
@@ -293,4 +417,22 @@ public class QoS4SendDaemonRoot
 	{
 		return this.DEBUG;
 	}
+	
+	/**
+	 * 一条待确认消息在时间轮上的记录。
+	 */
+	private static class PendingMessage
+	{
+		final Protocal protocal;
+		/** 下次重传（或判定丢包）的时间，只由定时器线程修改 **/
+		long deadline;
+		/** 已收到应答（或已被替换），时间轮处理到它时直接丢弃 **/
+		volatile boolean removed = false;
+		
+		PendingMessage(Protocal protocal, long deadline)
+		{
+			this.protocal = protocal;
+			this.deadline = deadline;
+		}
+	}
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * ByteBufUtf8Reader.java at 2026-10-18 07:36:08, code by Jack Jiang.
+ */
+package net.openmob.mobileimsdk.server.utils;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.Reader;
+
+/**
+ * 直接从ByteBuf中按UTF-8解码读取字符的Reader（ByteBufUtf8Writer的对应实现），用于Gson等流式解析JSON时
+ * 省去中间的byte[]和String。每读取一个字节，ByteBuf的读索引即前移一个字节。
+ *
+ * 不合法的UTF-8字节序列解码为替换字符U+FFFD，与 new String(bytes, "UTF-8") 的行为一致。
+ * 本类不是线程安全的，也不负责释放所读取的ByteBuf。
+ */
+public class ByteBufUtf8Reader extends Reader
+{
+	private final static char REPLACEMENT = '\uFFFD';
+	
+	private final ByteBuf buf;
+	/** 4字节编码的字符解码为代理对后，因目标数组已满而尚未读出的低位代理字符（0表示没有） **/
+	private char pendingLowSurrogate = 0;
+	
+	public ByteBufUtf8Reader(ByteBuf buf)
+	{
+		this.buf = buf;
+	}
+	
+	public ByteBuf buffer()
+	{
+		return buf;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len)
+	{
+		if(len == 0)
+			return 0;
+		
+		int n = 0;
+		if(pendingLowSurrogate != 0)
+		{
+			cbuf[off + n++] = pendingLowSurrogate;
+			pendingLowSurrogate = 0;
+		}
+		
+		// 以下对不合法字节序列的处理（哪些字节合并替换为一个替换字符）与JDK的UTF-8解码器保持一致
+		int sp = buf.readerIndex(), sl = buf.writerIndex();
+		while(n < len && sp < sl)
+		{
+			int b1 = buf.getByte(sp++);
+			if(b1 >= 0)
+			{
+				// ASCII是JSON中最常见的情形
+				cbuf[off + n++] = (char) b1;
+			}
+			else if((b1 >> 5) == -2 && (b1 & 0x1E) != 0)
+			{
+				// 2字节序列
+				int b2;
+				if(sp < sl && !isNotContinuation(b2 = buf.getByte(sp)))
+				{
+					sp++;
+					cbuf[off + n++] = (char) (((b1 & 0x1F) << 6) | (b2 & 0x3F));
+				}
+				else
+					cbuf[off + n++] = REPLACEMENT;
+			}
+			else if((b1 >> 4) == -2)
+			{
+				// 3字节序列
+				if(sp + 1 < sl)
+				{
+					int b2 = buf.getByte(sp), b3 = buf.getByte(sp + 1);
+					if(isMalformed3_2(b1, b2) || isNotContinuation(b3))
+					{
+						cbuf[off + n++] = REPLACEMENT;
+						if(!isMalformed3_2(b1, b2))
+							sp++;
+					}
+					else
+					{
+						sp += 2;
+						char c = (char) (((b1 & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F));
+						cbuf[off + n++] = (Character.isSurrogate(c) ? REPLACEMENT : c);
+					}
+				}
+				else
+				{
+					cbuf[off + n++] = REPLACEMENT;
+					if(sp < sl && !isMalformed3_2(b1, buf.getByte(sp)))
+						sp = sl;
+				}
+			}
+			else if((b1 >> 3) == -2)
+			{
+				// 4字节序列
+				b1 &= 0xFF;
+				if(sp + 2 < sl)
+				{
+					int b2 = buf.getByte(sp) & 0xFF, b3 = buf.getByte(sp + 1), b4 = buf.getByte(sp + 2);
+					int cp = ((b1 & 0x07) << 18) | ((b2 & 0x3F) << 12) | ((b3 & 0x3F) << 6) | (b4 & 0x3F);
+					if(isNotContinuation(b2) || isNotContinuation(b3) || isNotContinuation(b4) 
+							|| !Character.isSupplementaryCodePoint(cp))
+					{
+						cbuf[off + n++] = REPLACEMENT;
+						if(!(b1 > 0xF4 || isMalformed4_2(b1, b2)))
+							sp += (isNotContinuation(b3) ? 1 : 2);
+					}
+					else
+					{
+						sp += 3;
+						cbuf[off + n++] = Character.highSurrogate(cp);
+						if(n < len)
+							cbuf[off + n++] = Character.lowSurrogate(cp);
+						else
+							pendingLowSurrogate = Character.lowSurrogate(cp);
+					}
+				}
+				else
+				{
+					cbuf[off + n++] = REPLACEMENT;
+					if(b1 <= 0xF4 && !(sp < sl && isMalformed4_2(b1, buf.getByte(sp) & 0xFF)))
+					{
+						// 数据帧末尾被截断的序列整体替换为一个替换字符
+						if(++sp < sl && isNotContinuation(buf.getByte(sp)))
+							continue;
+						sp = sl;
+					}
+				}
+			}
+			else
+				cbuf[off + n++] = REPLACEMENT;
+		}
+		buf.readerIndex(sp);
+		return n == 0 ? -1 : n;
+	}
+	
+	private static boolean isNotContinuation(int b)
+	{
+		return (b & 0xC0) != 0x80;
+	}
+	
+	private static boolean isMalformed3_2(int b1, int b2)
+	{
+		return (b1 == (byte) 0xE0 && (b2 & 0xE0) == 0x80) || isNotContinuation(b2);
+	}
+	
+	private static boolean isMalformed4_2(int b1, int b2)
+	{
+		return (b1 == 0xF0 && (b2 < 0x90 || b2 > 0xBF)) || (b1 == 0xF4 && (b2 & 0xF0) != 0x80) || isNotContinuation(b2);
+	}
+
+	@Override
+	public void close()
+	{
+		// ByteBuf的生命周期由调用者负责
+	}
+}
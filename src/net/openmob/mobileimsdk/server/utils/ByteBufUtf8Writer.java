@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * ByteBufUtf8Writer.java at 2026-10-18 06:43:13, code by Jack Jiang.
+ */
+package net.openmob.mobileimsdk.server.utils;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * 将写入的字符直接以UTF-8编码追加到ByteBuf中的Writer，用于Gson等流式输出JSON时省去中间的String和byte[]。
+ *
+ * 非法的代理字符（未成对的surrogate）编码为'?'，与 String.getBytes("UTF-8") 的行为一致。
+ * 本类不是线程安全的，也不负责释放所写入的ByteBuf。
+ */
+public class ByteBufUtf8Writer extends Writer
+{
+	private final ByteBuf buf;
+	
+	public ByteBufUtf8Writer(ByteBuf buf)
+	{
+		this.buf = buf;
+	}
+	
+	public ByteBuf buffer()
+	{
+		return buf;
+	}
+
+	@Override
+	public void write(int c)
+	{
+		char ch = (char) c;
+		if(ch < 0x80)
+			buf.writeByte(ch);
+		else
+			writeUtf8(String.valueOf(ch), 0, 1);
+	}
+
+	@Override
+	public void write(String str, int off, int len)
+	{
+		writeUtf8(str, off, off + len);
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len)
+	{
+		writeUtf8(CharBuffer.wrap(cbuf, off, len), 0, len);
+	}
+
+	@Override
+	public Writer append(CharSequence csq)
+	{
+		if(csq == null)
+			csq = "null";
+		writeUtf8(csq, 0, csq.length());
+		return this;
+	}
+
+	@Override
+	public Writer append(CharSequence csq, int start, int end)
+	{
+		if(csq == null)
+			csq = "null";
+		writeUtf8(csq, start, end);
+		return this;
+	}
+
+	@Override
+	public void flush()
+	{
+		// 直接写入ByteBuf，无需flush
+	}
+
+	@Override
+	public void close()
+	{
+		// ByteBuf的生命周期由调用者负责
+	}
+	
+	private void writeUtf8(CharSequence s, int start, int end)
+	{
+		// 每个char最多编码为3个字节（代理对是2个char编码为4个字节）
+		buf.ensureWritable((end - start) * 3);
+		
+		for(int i = start; i < end; i++)
+		{
+			char c = s.charAt(i);
+			if(c < 0x80)
+			{
+				buf.writeByte(c);
+			}
+			else if(c < 0x800)
+			{
+				buf.writeByte(0xC0 | (c >> 6));
+				buf.writeByte(0x80 | (c & 0x3F));
+			}
+			else if(Character.isSurrogate(c))
+			{
+				if(Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1)))
+				{
+					int cp = Character.toCodePoint(c, s.charAt(++i));
+					buf.writeByte(0xF0 | (cp >> 18));
+					buf.writeByte(0x80 | ((cp >> 12) & 0x3F));
+					buf.writeByte(0x80 | ((cp >> 6) & 0x3F));
+					buf.writeByte(0x80 | (cp & 0x3F));
+				}
+				else
+				{
+					buf.writeByte('?');
+				}
+			}
+			else
+			{
+				buf.writeByte(0xE0 | (c >> 12));
+				buf.writeByte(0x80 | ((c >> 6) & 0x3F));
+				buf.writeByte(0x80 | (c & 0x3F));
+			}
+		}
+	}
+}
@@ -17,6 +17,7 @@
 package net.openmob.mobileimsdk.server.utils;
 
 import io.netty.channel.Channel;
+import io.netty.util.Recycler;
 import net.nettime.mobileimsdk.server.bridge.QoS4ReciveDaemonC2B;
 import net.nettime.mobileimsdk.server.netty.MBObserver;
 import net.openmob.mobileimsdk.server.ServerCoreHandler;
@@ -90,15 +91,19 @@ public class GlobalSendHelper
 
 			if(needDelegateACK)
 			{
-				MBObserver resultObserver = new MBObserver(){
-					@Override
-					public void update(boolean receivedBackSendSucess, Object extraObj)
-					{
-						if(receivedBackSendSucess)
-							logger.debug("[IMCORE-netty<C2C>-桥接↑]【QoS_伪应答_C2S】向"+pFromClient.getFrom()+"发送"+pFromClient.getFp()
-									+"的伪应答包成功,伪装from自："+pFromClient.getTo()+"【第一阶段APP+WEB跨机通信算法】.");
-					}
-				};
+				MBObserver resultObserver = null;
+				if(logger.isDebugEnabled())
+				{
+					resultObserver = new MBObserver(){
+						@Override
+						public void update(boolean receivedBackSendSucess, Object extraObj)
+						{
+							if(receivedBackSendSucess)
+								logger.debug("[IMCORE-netty<C2C>-桥接↑]【QoS_伪应答_C2S】向"+pFromClient.getFrom()+"发送"+pFromClient.getFp()
+										+"的伪应答包成功,伪装from自："+pFromClient.getTo()+"【第一阶段APP+WEB跨机通信算法】.");
+						}
+					};
+				}
 				
 				LocalSendHelper.replyDelegateRecievedBack(session, pFromClient, resultObserver);
 			}
@@ -107,58 +112,7 @@ public class GlobalSendHelper
 		}
 		else
 		{
-			MBObserver resultObserver = new MBObserver(){
-				@Override
-				public void update(boolean sendOK, Object extraObj)
-				{
-					if(sendOK)
-					{
-//						serverCoreHandler.getServerEventListener().onTransBuffer_C2C_CallBack(
-//								pFromClient.getTo(), pFromClient.getFrom()
-//								, pFromClient.getDataContent(), pFromClient.getFp(), pFromClient.getTypeu());
-						serverCoreHandler.getServerEventListener().onTransBuffer_C2C_CallBack(pFromClient);
-					}
-					else
-					{
-						logger.info("[IMCORE-netty<C2C>]>> 客户端"+remoteAddress+"的通用数据尝试实时发送没有成功，将交给应用层进行离线存储哦...");
-
-//						boolean offlineProcessedOK = serverCoreHandler.getServerEventListener()
-//								.onTransBuffer_C2C_RealTimeSendFaild_CallBack(pFromClient.getTo()
-//										, pFromClient.getFrom(), pFromClient.getDataContent(), pFromClient.getFp(), pFromClient.getTypeu());
-						boolean offlineProcessedOK = serverCoreHandler.getServerEventListener()
-								.onTransBuffer_C2C_RealTimeSendFaild_CallBack(pFromClient);
-						if(pFromClient.isQoS() && offlineProcessedOK)
-						{
-							try
-							{
-								MBObserver retObserver = new MBObserver(){
-									@Override
-									public void update(boolean sucess, Object extraObj)
-									{
-										if(sucess)
-										{
-											logger.debug("[IMCORE-netty<C2C>]【QoS_伪应答_C2S】向"+pFromClient.getFrom()+"发送"+pFromClient.getFp()
-													+"的伪应答包成功,from="+pFromClient.getTo()+".");
-										}
-									}
-								};
-								
-								LocalSendHelper.replyDelegateRecievedBack(session, pFromClient, retObserver);
-							}
-							catch (Exception e)
-							{
-								logger.warn(e.getMessage(), e);
-							}
-						}
-						else
-						{
-							logger.warn("[IMCORE-netty<C2C>]>> 客户端"+remoteAddress+"的通用数据传输消息尝试实时发送没有成功，但上层应用层没有成" +
-									"功(或者完全没有)进行离线存储，此消息将被服务端丢弃！");
-						}
-					}
-				}
-			};
-			
+			MBObserver resultObserver = C2CSendResultObserver.newInstance(session, pFromClient, remoteAddress, serverCoreHandler);
 			LocalSendHelper.sendData(pFromClient, resultObserver);
 		}
 	}
@@ -194,20 +148,7 @@ public class GlobalSendHelper
 		}
 		else
 		{
-			LocalSendHelper.sendData(pFromClient, new MBObserver(){
-				@Override
-				public void update(boolean _sendSucess, Object extraObj)
-				{
-					if(_sendSucess)
-						_sendSucess = true;
-					else
-						logger.warn("[IMCORE-netty]>> 服务端的通用数据传输消息尝试实时发送没有成功，但上层应用层没有成" +
-									"功，请应用层自行决定此条消息的发送【NO】！");
-					
-					if(resultObserver != null)
-						resultObserver.update(_sendSucess, null);
-				}
-			});
+			LocalSendHelper.sendData(pFromClient, S2CSendResultObserver.newInstance(resultObserver));
 			
 			return;
 		}
@@ -215,4 +156,147 @@ public class GlobalSendHelper
 		if(resultObserver != null)
 			resultObserver.update(sucess, null);
 	}
+	
+	/**
+	 * C2C消息实时发送的结果回调：发送成功时通知业务层，失败时交给业务层作离线处理，并视情况回伪应答包。
+	 * 
+	 * LocalSendHelper.sendData() 对每个回调只会通知一次，因而启用对象池时（见 ServerLauncher.objectPoolingEnabled ）
+	 * 通知完成后即回收复用，不必每条消息都创建一个。
+	 */
+	private final static class C2CSendResultObserver implements MBObserver
+	{
+		private final static Recycler<C2CSendResultObserver> RECYCLER = new Recycler<C2CSendResultObserver>() {
+			@Override
+			protected C2CSendResultObserver newObject(Handle<C2CSendResultObserver> handle)
+			{
+				return new C2CSendResultObserver(handle);
+			}
+		};
+		
+		/** 对象池句柄，未启用对象池时为null **/
+		private final Recycler.Handle<C2CSendResultObserver> handle;
+		private Channel session;
+		private Protocal pFromClient;
+		private String remoteAddress;
+		private ServerCoreHandler serverCoreHandler;
+		
+		private C2CSendResultObserver(Recycler.Handle<C2CSendResultObserver> handle)
+		{
+			this.handle = handle;
+		}
+		
+		static C2CSendResultObserver newInstance(Channel session, Protocal pFromClient
+				, String remoteAddress, ServerCoreHandler serverCoreHandler)
+		{
+			C2CSendResultObserver o = (ServerLauncher.objectPoolingEnabled ? RECYCLER.get() : new C2CSendResultObserver(null));
+			o.session = session;
+			o.pFromClient = pFromClient;
+			o.remoteAddress = remoteAddress;
+			o.serverCoreHandler = serverCoreHandler;
+			return o;
+		}
+		
+		@Override
+		public void update(boolean sendOK, Object extraObj)
+		{
+			try
+			{
+				if(sendOK)
+				{
+					serverCoreHandler.getServerEventListener().onTransBuffer_C2C_CallBack(pFromClient);
+				}
+				else
+				{
+					logger.info("[IMCORE-netty<C2C>]>> 客户端"+remoteAddress+"的通用数据尝试实时发送没有成功，将交给应用层进行离线存储哦...");
+
+					boolean offlineProcessedOK = serverCoreHandler.getServerEventListener()
+							.onTransBuffer_C2C_RealTimeSendFaild_CallBack(pFromClient);
+					if(pFromClient.isQoS() && offlineProcessedOK)
+					{
+						try
+						{
+							final Protocal p = pFromClient;
+							MBObserver retObserver = new MBObserver(){
+								@Override
+								public void update(boolean sucess, Object extraObj)
+								{
+									if(sucess)
+									{
+										logger.debug("[IMCORE-netty<C2C>]【QoS_伪应答_C2S】向"+p.getFrom()+"发送"+p.getFp()
+												+"的伪应答包成功,from="+p.getTo()+".");
+									}
+								}
+							};
+							
+							LocalSendHelper.replyDelegateRecievedBack(session, pFromClient, retObserver);
+						}
+						catch (Exception e)
+						{
+							logger.warn(e.getMessage(), e);
+						}
+					}
+					else
+					{
+						logger.warn("[IMCORE-netty<C2C>]>> 客户端"+remoteAddress+"的通用数据传输消息尝试实时发送没有成功，但上层应用层没有成" +
+								"功(或者完全没有)进行离线存储，此消息将被服务端丢弃！");
+					}
+				}
+			}
+			finally
+			{
+				session = null;
+				pFromClient = null;
+				remoteAddress = null;
+				serverCoreHandler = null;
+				if(handle != null)
+					handle.recycle(this);
+			}
+		}
+	}
+	
+	/**
+	 * S2C消息实时发送的结果回调：将发送结果转告调用者的回调（回收复用的方式同 C2CSendResultObserver ）。
+	 */
+	private final static class S2CSendResultObserver implements MBObserver
+	{
+		private final static Recycler<S2CSendResultObserver> RECYCLER = new Recycler<S2CSendResultObserver>() {
+			@Override
+			protected S2CSendResultObserver newObject(Handle<S2CSendResultObserver> handle)
+			{
+				return new S2CSendResultObserver(handle);
+			}
+		};
+		
+		/** 对象池句柄，未启用对象池时为null **/
+		private final Recycler.Handle<S2CSendResultObserver> handle;
+		private MBObserver resultObserver;
+		
+		private S2CSendResultObserver(Recycler.Handle<S2CSendResultObserver> handle)
+		{
+			this.handle = handle;
+		}
+		
+		static S2CSendResultObserver newInstance(MBObserver resultObserver)
+		{
+			S2CSendResultObserver o = (ServerLauncher.objectPoolingEnabled ? RECYCLER.get() : new S2CSendResultObserver(null));
+			o.resultObserver = resultObserver;
+			return o;
+		}
+		
+		@Override
+		public void update(boolean _sendSucess, Object extraObj)
+		{
+			MBObserver resultObserver = this.resultObserver;
+			this.resultObserver = null;
+			if(handle != null)
+				handle.recycle(this);
+			
+			if(!_sendSucess)
+				logger.warn("[IMCORE-netty]>> 服务端的通用数据传输消息尝试实时发送没有成功，但上层应用层没有成" +
+						"功，请应用层自行决定此条消息的发送【NO】！");
+			
+			if(resultObserver != null)
+				resultObserver.update(_sendSucess, null);
+		}
+	}
 }
@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * LazyProtocal.java at 2026-10-18 07:41:53, code by Jack Jiang.
+ */
+package net.openmob.mobileimsdk.server.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import net.openmob.mobileimsdk.server.protocal.CharsetHelper;
+import net.openmob.mobileimsdk.server.protocal.Protocal;
+import net.openmob.mobileimsdk.server.protocal.ProtocalBinaryCodec;
+import net.openmob.mobileimsdk.server.protocal.ProtocalFactory;
+
+/**
+ * 只解码了帧头的Protocal（见 ServerLauncher.lazyDecodingEnabled ）：收到数据帧时只解析路由所需的字段（type、from、to、fp、
+ * QoS、bridge等），dataContent则保留为收到的原始字节，直到首次调用 getDataContent() 时才解码。
+ * 
+ * 未被修改过的LazyProtocal在转发给线上格式相同的客户端时（如C2C消息的转发），直接以引用计数的方式原样转发收到的原始帧，
+ * 无需解码和重新编码dataContent（见 ServerToolKits.toByteBuf() ），转发的开销因而与消息大小基本无关。
+ * 
+ * 原始帧只在收到它的处理流程中有效：处理结束时须调用 detach() ，此后尚未解码的dataContent以复制出的原始字节保存，
+ * 业务层在此后（如异步回调中）仍可正常取用。本类是线程安全的。
+ */
+public class LazyProtocal extends Protocal
+{
+	private final static Charset UTF8 = Charset.forName(CharsetHelper.DECODE_CHARSET);
+	
+	private final static byte[] KEY_BRIDGE = CharsetHelper.getBytes("bridge");
+	private final static byte[] KEY_TYPE = CharsetHelper.getBytes("type");
+	private final static byte[] KEY_DATA_CONTENT = CharsetHelper.getBytes("dataContent");
+	private final static byte[] KEY_FROM = CharsetHelper.getBytes("from");
+	private final static byte[] KEY_TO = CharsetHelper.getBytes("to");
+	private final static byte[] KEY_FP = CharsetHelper.getBytes("fp");
+	private final static byte[] KEY_QOS = CharsetHelper.getBytes("QoS");
+	private final static byte[] KEY_TYPEU = CharsetHelper.getBytes("typeu");
+	private final static byte[] KEY_SID = CharsetHelper.getBytes("sid");
+	private final static byte[] LITERAL_TRUE = CharsetHelper.getBytes("true");
+	private final static byte[] LITERAL_FALSE = CharsetHelper.getBytes("false");
+	private final static byte[] LITERAL_NULL = CharsetHelper.getBytes("null");
+	
+	// 以下字段均为transient，以免被Gson序列化
+	
+	/** 收到的原始数据帧（不持有其引用计数，只在 detach() 之前有效） **/
+	private transient ByteBuf frame;
+	/** 原始帧是否为二进制格式 **/
+	private final transient boolean binary;
+	/** 原始帧在frame中的起止位置 **/
+	private final transient int frameIndex, frameEnd;
+	/** dataContent在frame中的范围（JSON格式下含两端引号，二进制格式下含长度前缀），dataContent为null时为-1 **/
+	private final transient int contentIndex, contentLength;
+	/** 会话令牌字段在frame中的范围（JSON格式下含与相邻字段间的逗号），没有会话令牌时为-1 **/
+	private final transient int sidIndex, sidLength;
+	
+	/** dataContent是否已解码 **/
+	private transient boolean contentDecoded;
+	/** detach() 时复制出的dataContent原始字节（此时仍未解码才有） **/
+	private transient byte[] detachedContent;
+	/** 除清除会话令牌外是否修改过任何字段（修改过则不能再原样转发原始帧） **/
+	private transient boolean modified;
+	/** 会话令牌是否已被清除（原样转发时须从原始帧中去掉） **/
+	private transient boolean sidCleared;
+	
+	private LazyProtocal(Protocal header, ByteBuf frame, boolean binary, int frameIndex, int frameEnd
+			, int contentIndex, int contentLength, int sidIndex, int sidLength)
+	{
+		super(header.getType(), null, header.getFrom(), header.getTo(), false, header.getFp(), header.getTypeu());
+		super.setQoS(header.isQoS());
+		super.setBridge(header.isBridge());
+		super.setSid(header.getSid());
+		
+		this.frame = frame;
+		this.binary = binary;
+		this.frameIndex = frameIndex;
+		this.frameEnd = frameEnd;
+		this.contentIndex = contentIndex;
+		this.contentLength = contentLength;
+		this.sidIndex = sidIndex;
+		this.sidLength = sidLength;
+		this.contentDecoded = (contentIndex < 0);
+	}
+	
+	/**
+	 * 只解码数据帧的帧头（JSON和二进制两种格式均可，成功时buffer的读索引将移动到帧尾）。
+	 * 
+	 * @param buffer 收到的数据帧
+	 * @return 无法只解码帧头时（如JSON中含有Protocal没有的嵌套对象等少见的写法，或帧格式不合法）返回null，
+	 * 调用者应改用 ServerToolKits.fromIOBuffer() 完整解码
+	 */
+	public static LazyProtocal parse(ByteBuf buffer)
+	{
+		LazyProtocal p = (ServerToolKits.isBinaryFrame(buffer) ? parseBinary(buffer) : parseJson(buffer));
+		if(p != null)
+			buffer.readerIndex(buffer.writerIndex());
+		return p;
+	}
+	
+	private static LazyProtocal parseBinary(ByteBuf buffer)
+	{
+		int frameIndex = buffer.readerIndex(), frameEnd = buffer.writerIndex();
+		try
+		{
+			ByteBuffer src = buffer.nioBuffer(frameIndex, frameEnd - frameIndex);
+			int start = src.position();
+			Protocal header = ProtocalBinaryCodec.decodeHeader(src);
+			int contentIndex = frameIndex + src.position() - start;
+			ProtocalBinaryCodec.skipDataContent(src);
+			int contentLength = src.position() - start - (contentIndex - frameIndex);
+			
+			LazyProtocal p = new LazyProtocal(header, buffer, true, frameIndex, frameEnd
+					, contentIndex, contentLength, header.getSid() != null ? frameIndex + 3 : -1, 8);
+			// 与完整解码一致：需要QoS但没有指纹码的帧补生成指纹码，此时原始帧已与之不符，不能再原样转发
+			if(p.isQoS() && p.getFp() == null)
+				p.setFp(Protocal.genFingerPrint());
+			return p;
+		}
+		catch (RuntimeException e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * 逐字节扫描JSON格式的帧头：Protocal的各字段均为字符串、数字或布尔值，只解码路由所需的字段，dataContent只记下其位置。
+	 * 字段的缺省值与Gson的解码结果一致（Protocal没有无参构造方法，Gson解码时不执行字段的初始化语句）。
+	 */
+	private static LazyProtocal parseJson(ByteBuf buf)
+	{
+		int frameIndex = buf.readerIndex(), end = buf.writerIndex();
+		boolean bridge = false, QoS = false;
+		int type = 0, typeu = 0;
+		String from = null, to = null, fp = null, sid = null;
+		int contentIndex = -1, contentLength = 0, sidIndex = -1, sidLength = 0;
+		
+		int i = skipWhitespace(buf, frameIndex, end);
+		if(i >= end || buf.getByte(i) != '{')
+			return null;
+		i = skipWhitespace(buf, i + 1, end);
+		if(i < end && buf.getByte(i) == '}')
+			i++;
+		else
+		{
+			int prevComma = -1;
+			while(true)
+			{
+				// 字段名
+				if(i >= end || buf.getByte(i) != '"')
+					return null;
+				int keyIndex = i;
+				int keyEnd = scanString(buf, i, end);
+				if(keyEnd < 0 || buf.indexOf(keyIndex, keyEnd, (byte) '\\') >= 0)
+					return null;
+				i = skipWhitespace(buf, keyEnd, end);
+				if(i >= end || buf.getByte(i) != ':')
+					return null;
+				
+				// 字段值
+				int valueIndex = skipWhitespace(buf, i + 1, end), valueEnd;
+				if(valueIndex >= end)
+					return null;
+				byte c = buf.getByte(valueIndex);
+				if(c == '"')
+					valueEnd = scanString(buf, valueIndex, end);
+				else if(c == 't')
+					valueEnd = scanLiteral(buf, valueIndex, end, LITERAL_TRUE);
+				else if(c == 'f')
+					valueEnd = scanLiteral(buf, valueIndex, end, LITERAL_FALSE);
+				else if(c == 'n')
+					valueEnd = scanLiteral(buf, valueIndex, end, LITERAL_NULL);
+				else if(c == '-' || (c >= '0' && c <= '9'))
+					valueEnd = scanNumber(buf, valueIndex, end);
+				else
+					return null;
+				if(valueEnd < 0)
+					return null;
+				
+				boolean isNull = (c == 'n');
+				int keyFrom = keyIndex + 1, keyLength = keyEnd - keyIndex - 2;
+				if(matches(buf, keyFrom, keyLength, KEY_DATA_CONTENT))
+				{
+					if(!isNull && c != '"')
+						return null;
+					contentIndex = (isNull ? -1 : valueIndex);
+					contentLength = valueEnd - valueIndex;
+				}
+				else if(matches(buf, keyFrom, keyLength, KEY_TYPE) || matches(buf, keyFrom, keyLength, KEY_TYPEU))
+				{
+					if(!isNull)
+					{
+						Integer v = parseInt(buf, valueIndex, valueEnd);
+						if(v == null)
+							return null;
+						if(keyLength == KEY_TYPE.length)
+							type = v;
+						else
+							typeu = v;
+					}
+				}
+				else if(matches(buf, keyFrom, keyLength, KEY_BRIDGE) || matches(buf, keyFrom, keyLength, KEY_QOS))
+				{
+					if(!isNull)
+					{
+						if(c != 't' && c != 'f')
+							return null;
+						if(keyLength == KEY_BRIDGE.length)
+							bridge = (c == 't');
+						else
+							QoS = (c == 't');
+					}
+				}
+				else if(matches(buf, keyFrom, keyLength, KEY_FROM) || matches(buf, keyFrom, keyLength, KEY_TO)
+						|| matches(buf, keyFrom, keyLength, KEY_FP) || matches(buf, keyFrom, keyLength, KEY_SID))
+				{
+					if(!isNull && c != '"')
+						return null;
+					String v = (isNull ? null : decodeString(buf, valueIndex, valueEnd - valueIndex));
+					if(matches(buf, keyFrom, keyLength, KEY_FROM))
+						from = v;
+					else if(matches(buf, keyFrom, keyLength, KEY_TO))
+						to = v;
+					else if(matches(buf, keyFrom, keyLength, KEY_FP))
+						fp = v;
+					else
+					{
+						if(sidIndex >= 0)
+							return null;
+						sid = v;
+						sidIndex = (prevComma >= 0 ? prevComma : keyIndex);
+						sidLength = valueEnd - sidIndex;
+					}
+				}
+				// 其它字段（Protocal中没有的）与Gson一样忽略
+				
+				i = skipWhitespace(buf, valueEnd, end);
+				if(i >= end)
+					return null;
+				c = buf.getByte(i);
+				if(c == ',')
+				{
+					// sid是第一个字段时，须连同其后的逗号一起去掉
+					if(sidIndex == keyIndex)
+						sidLength = i + 1 - sidIndex;
+					prevComma = i;
+					i = skipWhitespace(buf, i + 1, end);
+				}
+				else if(c == '}')
+				{
+					i++;
+					break;
+				}
+				else
+					return null;
+			}
+		}
+		if(skipWhitespace(buf, i, end) != end)
+			return null;
+		
+		Protocal header = new Protocal(type, null, from, to, false, fp, typeu);
+		header.setQoS(QoS);
+		header.setBridge(bridge);
+		header.setSid(sid);
+		return new LazyProtocal(header, buf, false, frameIndex, end, contentIndex, contentLength, sidIndex, sidLength);
+	}
+	
+	/**
+	 * 取得原样转发用的原始帧（会话令牌已被清除时，原始帧中的会话令牌也一并去掉）。
+	 * 
+	 * @param alloc
+	 * @param binaryProtocal 接收方的线上格式
+	 * @return 调用者负责写出或释放，原始帧已失效、被修改过或接收方的线上格式不同时返回null（应改为重新编码）
+	 */
+	public synchronized ByteBuf retainedFrame(ByteBufAllocator alloc, boolean binaryProtocal)
+	{
+		if(frame == null || modified || binary != binaryProtocal)
+			return null;
+		if(sidIndex < 0 || !sidCleared)
+			return frame.retainedSlice(frameIndex, frameEnd - frameIndex);
+		
+		int tailIndex = sidIndex + sidLength;
+		CompositeByteBuf out = alloc.compositeDirectBuffer(2);
+		if(binary)
+		{
+			// 二进制格式的会话令牌紧随帧头的3个字节之后，另须清除标志字节中的令牌标志
+			ByteBuf head = alloc.directBuffer(3);
+			head.writeBytes(frame, frameIndex, 3);
+			head.setByte(2, ProtocalBinaryCodec.clearSid(head.getByte(2)));
+			out.addComponent(true, head);
+		}
+		else
+			out.addComponent(true, frame.retainedSlice(frameIndex, sidIndex - frameIndex));
+		out.addComponent(true, frame.retainedSlice(tailIndex, frameEnd - tailIndex));
+		return out;
+	}
+	
+	/**
+	 * 与收到的原始帧脱离关系（收到它的处理流程结束时调用）：dataContent仍未解码时复制出其原始字节，以便此后仍可解码。
+	 */
+	public synchronized void detach()
+	{
+		if(frame == null)
+			return;
+		if(!contentDecoded)
+		{
+			detachedContent = new byte[contentLength];
+			frame.getBytes(contentIndex, detachedContent);
+		}
+		frame = null;
+	}
+	
+	@Override
+	public synchronized String getDataContent()
+	{
+		if(!contentDecoded)
+		{
+			ByteBuf src = (frame != null ? frame.slice(contentIndex, contentLength) : Unpooled.wrappedBuffer(detachedContent));
+			super.setDataContent(binary ? ProtocalBinaryCodec.decodeDataContent(src.nioBuffer()) 
+					: decodeString(src, src.readerIndex(), src.readableBytes()));
+			contentDecoded = true;
+			detachedContent = null;
+		}
+		return super.getDataContent();
+	}
+	
+	@Override
+	public synchronized void setDataContent(String dataContent)
+	{
+		super.setDataContent(dataContent);
+		contentDecoded = true;
+		detachedContent = null;
+		modified = true;
+	}
+	
+	@Override
+	public synchronized void setSid(String sid)
+	{
+		super.setSid(sid);
+		if(sid == null)
+			sidCleared = true;
+		else
+			modified = true;
+	}
+	
+	@Override
+	public synchronized void setType(int type)
+	{
+		super.setType(type);
+		modified = true;
+	}
+	
+	@Override
+	public synchronized void setFrom(String from)
+	{
+		super.setFrom(from);
+		modified = true;
+	}
+	
+	@Override
+	public synchronized void setTo(String to)
+	{
+		super.setTo(to);
+		modified = true;
+	}
+	
+	@Override
+	public synchronized void setFp(String fp)
+	{
+		super.setFp(fp);
+		modified = true;
+	}
+	
+	@Override
+	public synchronized void setQoS(boolean qoS)
+	{
+		super.setQoS(qoS);
+		modified = true;
+	}
+	
+	@Override
+	public synchronized void setBridge(boolean bridge)
+	{
+		super.setBridge(bridge);
+		modified = true;
+	}
+	
+	@Override
+	public synchronized void setTypeu(int typeu)
+	{
+		super.setTypeu(typeu);
+		modified = true;
+	}
+	
+	/**
+	 * 解码JSON字符串（含两端引号），不含转义字符时直接按UTF-8解码，否则交给Gson。
+	 */
+	private static String decodeString(ByteBuf buf, int index, int length)
+	{
+		if(buf.indexOf(index, index + length, (byte) '\\') < 0)
+			return buf.toString(index + 1, length - 2, UTF8);
+		return ProtocalFactory.parse(new ByteBufUtf8Reader(buf.slice(index, length)), String.class);
+	}
+	
+	/**
+	 * 返回字符串（i处为其开头的引号）结尾引号之后的位置，字符串未结束时返回-1。
+	 */
+	private static int scanString(ByteBuf buf, int i, int end)
+	{
+		int from = i + 1;
+		while(true)
+		{
+			int quote = buf.indexOf(from, end, (byte) '"');
+			if(quote < 0)
+				return -1;
+			
+			// 前面有奇数个反斜杠的引号是被转义的
+			int backslashes = 0;
+			while(quote - backslashes - 1 > i && buf.getByte(quote - backslashes - 1) == '\\')
+				backslashes++;
+			if((backslashes & 1) == 0)
+				return quote + 1;
+			from = quote + 1;
+		}
+	}
+	
+	private static int scanLiteral(ByteBuf buf, int i, int end, byte[] literal)
+	{
+		return (i + literal.length <= end && matches(buf, i, literal.length, literal)) ? i + literal.length : -1;
+	}
+	
+	private static int scanNumber(ByteBuf buf, int i, int end)
+	{
+		while(i < end)
+		{
+			byte c = buf.getByte(i);
+			if(!((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E'))
+				break;
+			i++;
+		}
+		return i;
+	}
+	
+	/**
+	 * 解析int型的数字，不是整数（如带小数点、指数）或超出int范围时返回null。
+	 */
+	private static Integer parseInt(ByteBuf buf, int i, int end)
+	{
+		boolean negative = (buf.getByte(i) == '-');
+		if(negative)
+			i++;
+		if(i >= end || end - i > 10)
+			return null;
+		
+		long v = 0;
+		for(; i < end; i++)
+		{
+			byte c = buf.getByte(i);
+			if(c < '0' || c > '9')
+				return null;
+			v = v * 10 + (c - '0');
+		}
+		v = (negative ? -v : v);
+		return (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) ? null : (int) v;
+	}
+	
+	private static int skipWhitespace(ByteBuf buf, int i, int end)
+	{
+		while(i < end)
+		{
+			byte c = buf.getByte(i);
+			if(c != ' ' && c != '\t' && c != '\n' && c != '\r')
+				break;
+			i++;
+		}
+		return i;
+	}
+	
+	private static boolean matches(ByteBuf buf, int index, int length, byte[] target)
+	{
+		if(length != target.length)
+			return false;
+		for(int j = 0; j < length; j++)
+		{
+			if(buf.getByte(index + j) != target[j])
+				return false;
+		}
+		return true;
+	}
+}
@@ -17,10 +17,10 @@
 package net.openmob.mobileimsdk.server.utils;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.util.Recycler;
 import net.nettime.mobileimsdk.server.bridge.QoS4SendDaemonB2C;
 import net.nettime.mobileimsdk.server.netty.MBObserver;
 import net.openmob.mobileimsdk.server.ServerCoreHandler;
@@ -29,6 +29,7 @@ import net.openmob.mobileimsdk.server.processor.OnlineProcessor;
 import net.openmob.mobileimsdk.server.protocal.ErrorCode;
 import net.openmob.mobileimsdk.server.protocal.Protocal;
 import net.openmob.mobileimsdk.server.protocal.ProtocalFactory;
+import net.openmob.mobileimsdk.server.protocal.ProtocalType;
 import net.openmob.mobileimsdk.server.qos.QoS4SendDaemonS2C;
 
 import org.slf4j.Logger;
@@ -80,6 +81,7 @@ public class LocalSendHelper
     		{
     			logger.warn("[IMCORE-netty]【注意】此Protocal对象中的接收方是服务器(user_id==0)（而此方法本来就是由Server调用，自已发自已不可能！），数据发送没有继续！"+p.toGsonString());
 
+    			RecyclableProtocal.release(p);
     			if(resultObserver != null)
     				resultObserver.update(false, null);
     		}
@@ -105,39 +107,11 @@ public class LocalSendHelper
 			{
 		    	if(p != null)
 		    	{
-		    		final byte[] res = p.toBytes();
+		    		ByteBuf to = ServerToolKits.toByteBuf(session, p);
+		    		int length = to.readableBytes();
+		    		ChannelFuture cf = writeAndFlush(session, to);//.sync();
 		    		
-		    		ByteBuf to = Unpooled.copiedBuffer(res);
-		    		ChannelFuture cf = session.writeAndFlush(to);//.sync();
-		    		
-		    		cf.addListener(new ChannelFutureListener() {
-		    	         public void operationComplete(ChannelFuture future) 
-		    	         {
-		 		    		if( future.isSuccess())
-		 		    		{
-//		 		    			logger.info("[IMCORE-netty] >> 给客户端："+ServerToolKits.clientInfoToString(session)
-//		 		    					+"的数据->"+p.toGsonString()+",已成功发出["+res.length+"].");
-		 		    			
-		 		    			if("0".equals(p.getFrom()))
-		 		    			{
-		 		    				if(p.isQoS() && !QoS4SendDaemonS2C.getInstance().exist(p.getFp()))
-		 		    					QoS4SendDaemonS2C.getInstance().put(p);
-		 		    			}
-		 		    			else if(p.isBridge())
-		 		    			{
-		 		    				if(p.isQoS() && !QoS4SendDaemonB2C.getInstance().exist(p.getFp()))
-		 		    					QoS4SendDaemonB2C.getInstance().put(p);
-		 		    			}
-		 		    		}
-		 		    		else
-		 		    		{
-		 		    			logger.warn("[IMCORE-netty]给客户端："+ServerToolKits.clientInfoToString(session)+"的数据->"+p.toGsonString()+",发送失败！["+res.length+"](此消息应考虑作离线处理哦).");
-		 		    		}
-		 		    		
-		 		    		if(resultObserver != null)
-	 		    				resultObserver.update(future.isSuccess(), null);
-		    	         }
-		    	    });
+		    		cf.addListener(SendResultListener.newInstance(session, p, length, resultObserver));
 		    		
 		    		// ## Bug FIX: 20171226 by JS, 上述数据的发送结果直接通过ChannelFutureListener就能知道，
 		    		//            如果此处不return，则会走到最后的resultObserver.update(false, null);，就会
@@ -153,17 +127,109 @@ public class LocalSendHelper
 			}
 		}
 		
+		RecyclableProtocal.release(p);
 		if(resultObserver != null)
 			resultObserver.update(false, null);
     }
     
+	/**
+	 * 单次发送的结果监听器：发送成功后将需要QoS的包加入QoS发送队列，并通知发送结果。
+	 * 
+	 * 每个监听器只会被回调一次，因而启用对象池时（见 ServerLauncher.objectPoolingEnabled ）回调完成后即回收复用，
+	 * 所发送的 RecyclableProtocal 也一并回收。
+	 */
+	private final static class SendResultListener implements ChannelFutureListener
+	{
+		private final static Recycler<SendResultListener> RECYCLER = new Recycler<SendResultListener>() {
+			@Override
+			protected SendResultListener newObject(Handle<SendResultListener> handle)
+			{
+				return new SendResultListener(handle);
+			}
+		};
+		
+		/** 对象池句柄，未启用对象池时为null **/
+		private final Recycler.Handle<SendResultListener> handle;
+		private Channel session;
+		private Protocal p;
+		private int length;
+		private MBObserver resultObserver;
+		
+		private SendResultListener(Recycler.Handle<SendResultListener> handle)
+		{
+			this.handle = handle;
+		}
+		
+		static SendResultListener newInstance(Channel session, Protocal p, int length, MBObserver resultObserver)
+		{
+			SendResultListener l = (ServerLauncher.objectPoolingEnabled ? RECYCLER.get() : new SendResultListener(null));
+			l.session = session;
+			l.p = p;
+			l.length = length;
+			l.resultObserver = resultObserver;
+			return l;
+		}
+		
+		@Override
+		public void operationComplete(ChannelFuture future) 
+		{
+			try
+			{
+				if(future.isSuccess())
+				{
+//					logger.info("[IMCORE-netty] >> 给客户端："+ServerToolKits.clientInfoToString(session)
+//							+"的数据->"+p.toGsonString()+",已成功发出["+length+"].");
+					
+					if("0".equals(p.getFrom()))
+					{
+						if(p.isQoS() && !QoS4SendDaemonS2C.getInstance().exist(p.getFp()))
+							QoS4SendDaemonS2C.getInstance().put(p);
+					}
+					else if(p.isBridge())
+					{
+						if(p.isQoS() && !QoS4SendDaemonB2C.getInstance().exist(p.getFp()))
+							QoS4SendDaemonB2C.getInstance().put(p);
+					}
+				}
+				else
+				{
+					logger.warn("[IMCORE-netty]给客户端："+ServerToolKits.clientInfoToString(session)+"的数据->"+p.toGsonString()+",发送失败！["+length+"](此消息应考虑作离线处理哦).");
+				}
+				
+				if(resultObserver != null)
+					resultObserver.update(future.isSuccess(), null);
+			}
+			finally
+			{
+				Protocal sent = p;
+				session = null;
+				p = null;
+				resultObserver = null;
+				if(handle != null)
+					handle.recycle(this);
+				RecyclableProtocal.release(sent);
+			}
+		}
+	}
+	
+	/**
+	 * 写出一个已编码的数据帧，超过 ServerLauncher.CHUNK_THRESHOLD 时分片发送（见 ServerLauncher.chunkingEnabled ）。
+	 */
+	private static ChannelFuture writeAndFlush(Channel session, ByteBuf frame)
+	{
+		if(ServerLauncher.chunkingEnabled && frame.readableBytes() > Math.max(ServerLauncher.CHUNK_THRESHOLD, ServerLauncher.CHUNK_SIZE))
+			return ServerToolKits.getChunkTransfer(session).send(session, frame);
+		return session.writeAndFlush(frame);
+	}
+    
 	public static void replyDataForUnlogined(Channel session, Protocal p
 			, MBObserver resultObserver) throws Exception
 	{
 		logger.warn("[IMCORE-netty]>> 客户端"+ServerToolKits.clientInfoToString(session)+"尚未登陆，"+p.getDataContent()+"处理未继续.");
 		
+		// 不再将原数据包回显在errorMsg中，以免应答包比请求包大得多而被利用来做UDP反射放大攻击
 		Protocal perror = ProtocalFactory.createPErrorResponse(
-				ErrorCode.ForS.RESPONSE_FOR_UNLOGIN, p.toGsonString(), "-1"); // 尚未登陆则user_id就不存在了,用-1表示吧，目前此情形下该参数无意义
+				ErrorCode.ForS.RESPONSE_FOR_UNLOGIN, null, "-1"); // 尚未登陆则user_id就不存在了,用-1表示吧，目前此情形下该参数无意义
 		sendData(session, perror, resultObserver);
 	}
 
@@ -172,10 +238,11 @@ public class LocalSendHelper
 	{
 		if(pFromClient.isQoS() && pFromClient.getFp() != null)
 		{
-			Protocal receivedBackP = ProtocalFactory.createRecivedBack(
-					pFromClient.getTo()
-					, pFromClient.getFrom()
-					, pFromClient.getFp());
+			// 伪应答包只在本次发送中使用，可回收复用（见 RecyclableProtocal ）
+			Protocal receivedBackP = RecyclableProtocal.newInstance(ProtocalType.C.FROM_CLIENT_TYPE_OF_RECIVED
+					, pFromClient.getFp()
+					, pFromClient.getTo()
+					, pFromClient.getFrom());
 
 			sendData(session, receivedBackP, resultObserver);
 		}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020  即时通讯网(52im.net) & Jack Jiang.
+ * The MobileIMSDK_X_netty (MobileIMSDK v4.x Netty版) Project. 
+ * All rights reserved.
+ * 
+ * > Github地址：https://github.com/JackJiang2011/MobileIMSDK
+ * > 文档地址：  http://www.52im.net/forum-89-1.html
+ * > 技术社区：  http://www.52im.net/
+ * > 技术交流群：320837163 (http://www.52im.net/topic-qqgroup.html)
+ * > 作者公众号：“即时通讯技术圈】”，欢迎关注！
+ * > 联系作者：  http://www.52im.net/thread-2792-1-1.html
+ *  
+ * "即时通讯网(52im.net) - 即时通讯开发者社区!" 推荐开源工程。
+ * 
+ * RecyclableProtocal.java at 2026-10-18 07:50:03, code by Jack Jiang.
+ */
+package net.openmob.mobileimsdk.server.utils;
+
+import io.netty.util.Recycler;
+import net.openmob.mobileimsdk.server.ServerLauncher;
+import net.openmob.mobileimsdk.server.protocal.Protocal;
+
+/**
+ * 可回收复用的Protocal（见 ServerLauncher.objectPoolingEnabled ），仅用于服务端内部生成、且不会被业务层持有的应答包，
+ * 如伪应答包（ACK）和心跳应答包，以免每条消息都产生一个用后即弃的Protocal对象。
+ * 
+ * 所有权约定：交给 LocalSendHelper.sendData() 后即归其所有，调用者此后不可再使用该对象。sendData()的每个返回路径
+ * 都会调用 release() 回收它（发出的在发送完成时回收，无论成功与否；接收方不在线等未发出的则在返回前回收），
+ * 只有sendData()抛出异常时该对象才不回收，交由GC处理。不可用于需要QoS的包（QoS包在发出后会被QoS发送队列继续持有）。
+ */
+public final class RecyclableProtocal extends Protocal
+{
+	private final static Recycler<RecyclableProtocal> RECYCLER = new Recycler<RecyclableProtocal>() {
+		@Override
+		protected RecyclableProtocal newObject(Handle<RecyclableProtocal> handle)
+		{
+			return new RecyclableProtocal(handle);
+		}
+	};
+	
+	/** 本对象在对象池中的句柄（transient，以免被Gson序列化） **/
+	private final transient Recycler.Handle<RecyclableProtocal> handle;
+	
+	private RecyclableProtocal(Recycler.Handle<RecyclableProtocal> handle)
+	{
+		super(0, null, null, null);
+		this.handle = handle;
+	}
+	
+	/**
+	 * 从对象池中取出一个Protocal，未启用对象池时返回普通的Protocal。
+	 * 
+	 * @param type 协议类型
+	 * @param dataContent 协议数据内容
+	 * @param from 发送方id
+	 * @param to 接收方id
+	 * @return
+	 */
+	public static Protocal newInstance(int type, String dataContent, String from, String to)
+	{
+		if(!ServerLauncher.objectPoolingEnabled)
+			return new Protocal(type, dataContent, from, to);
+		
+		RecyclableProtocal p = RECYCLER.get();
+		p.setType(type);
+		p.setDataContent(dataContent);
+		p.setFrom(from);
+		p.setTo(to);
+		return p;
+	}
+	
+	/**
+	 * 回收一个Protocal：是 RecyclableProtocal 时将其放回对象池，否则什么都不做。
+	 * @param p 可为null
+	 */
+	public static void release(Protocal p)
+	{
+		if(p instanceof RecyclableProtocal)
+			((RecyclableProtocal) p).recycle();
+	}
+	
+	private void recycle()
+	{
+		// 恢复为初始状态，也不再引用任何字符串
+		setType(0);
+		setDataContent(null);
+		setFrom(null);
+		setTo(null);
+		setFp(null);
+		setQoS(false);
+		setBridge(false);
+		setTypeu(-1);
+		setSid(null);
+		handle.recycle(this);
+	}
+}
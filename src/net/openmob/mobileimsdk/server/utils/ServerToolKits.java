@@ -18,15 +18,25 @@ package net.openmob.mobileimsdk.server.utils;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 
 import java.net.SocketAddress;
+import java.util.List;
 
+import net.nettime.mobileimsdk.server.netty.MBUDPChannel;
+import net.nettime.mobileimsdk.server.netty.MBUDPChunkTransfer;
+import net.nettime.mobileimsdk.server.netty.MBUDPChunkedFrames;
+import net.nettime.mobileimsdk.server.netty.MBUDPPackedFrames;
 import net.openmob.mobileimsdk.server.ServerCoreHandler;
 import net.openmob.mobileimsdk.server.ServerLauncher;
 import net.openmob.mobileimsdk.server.processor.OnlineProcessor;
 import net.openmob.mobileimsdk.server.protocal.CharsetHelper;
 import net.openmob.mobileimsdk.server.protocal.Protocal;
+import net.openmob.mobileimsdk.server.protocal.ProtocalBinaryCodec;
 import net.openmob.mobileimsdk.server.protocal.ProtocalFactory;
+import net.openmob.mobileimsdk.server.protocal.ProtocalTemplate;
+import net.openmob.mobileimsdk.server.protocal.ProtocalType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +45,19 @@ public class ServerToolKits
 {
 	private static Logger logger = LoggerFactory.getLogger(ServerCoreHandler.class);  
 	
+	public final static String BINARY_PROTOCAL_IN_SESSION_ATTRIBUTE = "__binary_protocal__";
+	/** 会话所协商的线上格式：true表示二进制格式（见ProtocalBinaryCodec），否则为JSON格式 **/
+	public static final AttributeKey<Boolean> BINARY_PROTOCAL_IN_SESSION_ATTRIBUTE_ATTR = 
+			AttributeKey.newInstance(BINARY_PROTOCAL_IN_SESSION_ATTRIBUTE);
+	
+	public final static String CHUNK_TRANSFER_IN_SESSION_ATTRIBUTE = "__chunk_transfer__";
+	/** 会话的分片传输状态（见 MBUDPChunkTransfer ），首次收发分片帧时才创建 **/
+	public static final AttributeKey<MBUDPChunkTransfer> CHUNK_TRANSFER_IN_SESSION_ATTRIBUTE_ATTR = 
+			AttributeKey.newInstance(CHUNK_TRANSFER_IN_SESSION_ATTRIBUTE);
+	
+	/** JSON格式相对于各字段内容本身多出的字节数（字段名、引号等）的估算值，用于预分配编码缓冲区 **/
+	private final static int JSON_FRAME_OVERHEAD = 128;
+	
     public static void setSenseMode(SenseMode mode)
     {
     	int expire = 0;
@@ -87,9 +110,317 @@ public class ServerToolKits
 		return jsonStr;
 	}
 	
+	/**
+	 * 判断收到的数据帧是否为二进制格式（不移动读索引）。
+	 * @param buffer
+	 * @return
+	 */
+	public static boolean isBinaryFrame(ByteBuf buffer)
+	{
+		return buffer.isReadable() && ProtocalBinaryCodec.isBinary(buffer.getByte(buffer.readerIndex()));
+	}
+	
+	/** JSON格式帧中表示需要QoS的字段（Protocal中无嵌套对象，dataContent内的引号均已转义，因而不会误判） **/
+	private final static byte[] JSON_QOS_TRUE = CharsetHelper.getBytes("\"QoS\":true");
+	/** JSON格式帧中的协议类型字段（同上，"typeu"字段及dataContent内的同名字段均不会被误判） **/
+	private final static byte[] JSON_TYPE = CharsetHelper.getBytes("\"type\":");
+	/** JSON格式帧中的会话令牌字段（同上） **/
+	private final static byte[] JSON_SID = CharsetHelper.getBytes("\"sid\":\"");
+	
+	/**
+	 * 不解码整个数据帧，仅判断其是否为需要QoS的数据包（JSON和二进制两种格式均可，打包帧则只要其中有一个数据帧需要QoS即是）。
+	 * @param buffer
+	 * @return
+	 */
+	public static boolean isQoSFrame(ByteBuf buffer)
+	{
+		if(MBUDPPackedFrames.isPacked(buffer))
+		{
+			List<ByteBuf> frames;
+			try
+			{
+				frames = MBUDPPackedFrames.unpack(buffer);
+			}
+			catch(IllegalArgumentException e)
+			{
+				// 格式不合法的打包帧反正会被丢弃
+				return false;
+			}
+			for(ByteBuf frame : frames)
+			{
+				if(!MBUDPPackedFrames.isPacked(frame) && isQoSFrame(frame))
+					return true;
+			}
+			return false;
+		}
+		// 分片帧不视为需要QoS：被丢弃的分片可由接收方的重传请求（选择性重传）补回
+		if(MBUDPChunkedFrames.isChunk(buffer))
+			return false;
+		if(isBinaryFrame(buffer))
+			return buffer.readableBytes() > 2 && ProtocalBinaryCodec.isQoS(buffer.getByte(buffer.readerIndex() + 2));
+		return indexOf(buffer, JSON_QOS_TRUE) >= 0;
+	}
+	
+	/**
+	 * 不解码整个数据帧，仅取出其协议类型（JSON和二进制两种格式均可，打包帧则取其中第一个数据帧的类型）。
+	 * @param buffer
+	 * @return 协议类型，不是合法的数据帧时返回-1
+	 */
+	public static int peekFrameType(ByteBuf buffer)
+	{
+		if(MBUDPPackedFrames.isPacked(buffer))
+		{
+			ByteBuf first = MBUDPPackedFrames.firstFrame(buffer);
+			return (first != null && !MBUDPPackedFrames.isPacked(first) ? peekFrameType(first) : -1);
+		}
+		if(isBinaryFrame(buffer))
+			return buffer.readableBytes() > 2 ? (buffer.getByte(buffer.readerIndex() + 1) & 0xFF) : -1;
+		if(!buffer.isReadable() || buffer.getByte(buffer.readerIndex()) != '{')
+			return -1;
+		
+		int i = indexOf(buffer, JSON_TYPE);
+		if(i < 0)
+			return -1;
+		
+		int type = -1;
+		for(i += JSON_TYPE.length; i < buffer.writerIndex(); i++)
+		{
+			byte b = buffer.getByte(i);
+			if(b < '0' || b > '9')
+				break;
+			type = (type < 0 ? 0 : type * 10) + (b - '0');
+			if(type > 0xFFFF)
+				return -1;
+		}
+		return type;
+	}
+	
+	/**
+	 * 不解码整个数据帧，仅取出其携带的会话令牌（JSON和二进制两种格式均可，打包帧则取其中第一个数据帧的令牌，见 Protocal.getSid() ）。
+	 * @param buffer
+	 * @return 会话令牌，未携带或格式不合法时返回0
+	 */
+	public static long peekSessionToken(ByteBuf buffer)
+	{
+		if(MBUDPPackedFrames.isPacked(buffer))
+		{
+			ByteBuf first = MBUDPPackedFrames.firstFrame(buffer);
+			return (first != null && !MBUDPPackedFrames.isPacked(first) ? peekSessionToken(first) : 0);
+		}
+		int readerIndex = buffer.readerIndex();
+		if(isBinaryFrame(buffer))
+		{
+			if(buffer.readableBytes() < 3 + 8 || !ProtocalBinaryCodec.hasSid(buffer.getByte(readerIndex + 2)))
+				return 0;
+			return buffer.getLong(readerIndex + 3);
+		}
+		
+		int i = indexOf(buffer, JSON_SID);
+		if(i < 0 || i + JSON_SID.length + 16 > buffer.writerIndex())
+			return 0;
+		
+		long token = 0;
+		int end = i + JSON_SID.length + 16;
+		for(i += JSON_SID.length; i < end; i++)
+		{
+			int digit = Character.digit((char) buffer.getByte(i), 16);
+			if(digit < 0)
+				return 0;
+			token = (token << 4) | digit;
+		}
+		return token;
+	}
+	
+	private static int indexOf(ByteBuf buffer, byte[] needle)
+	{
+		int from = buffer.readerIndex(), to = buffer.writerIndex() - needle.length;
+		for(int i = from; i <= to; i++)
+		{
+			int j = 0;
+			while(j < needle.length && buffer.getByte(i + j) == needle[j])
+				j++;
+			if(j == needle.length)
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * 解码收到的数据帧，JSON和二进制两种格式均可（按首字节自动区分）。
+	 * @param buffer
+	 * @return
+	 * @throws Exception
+	 */
 	public static Protocal fromIOBuffer(ByteBuf buffer) throws Exception 
 	{
-		return ProtocalFactory.parse(fromIOBuffer_JSON(buffer), Protocal.class);
+		if(isBinaryFrame(buffer))
+		{
+			Protocal p = ProtocalBinaryCodec.decode(buffer.nioBuffer());
+			buffer.skipBytes(buffer.readableBytes());
+			return p;
+		}
+		// JSON帧直接从ByteBuf中流式解析，不再先复制为byte[]再解码为String
+		return ProtocalFactory.parse(new ByteBufUtf8Reader(buffer), Protocal.class);
+	}
+	
+	/**
+	 * 按会话所协商的线上格式，将Protocal直接编码到从会话的allocator中分配的（池化的direct）ByteBuf中，
+	 * 不经过中间的String和byte[]，返回的ByteBuf由调用者负责写出或释放。
+	 * ACK应答、登陆应答等服务端固定形态的数据包则以预编码的模板编码（见 ProtocalFactory.getTemplate() ），只需拼接其可变字段，
+	 * 收到后未被修改过的数据包则直接转发收到的原始帧（见 LazyProtocal ）。
+	 * @param session
+	 * @param p
+	 * @return
+	 */
+	public static ByteBuf toByteBuf(Channel session, Protocal p)
+	{
+		boolean binary = isBinaryProtocal(session);
+		if(p instanceof LazyProtocal)
+		{
+			// 未被修改过的数据包（如C2C转发的消息）直接原样转发收到的原始帧，无需重新编码
+			ByteBuf frame = ((LazyProtocal) p).retainedFrame(session.alloc(), binary);
+			if(frame != null)
+				return frame;
+		}
+		ProtocalTemplate template = ProtocalFactory.getTemplate(p);
+		if(template != null)
+		{
+			int length = template.encodedLength(p, binary);
+			ByteBuf buf = session.alloc().directBuffer(length);
+			int writerIndex = buf.writerIndex();
+			template.encode(p, binary, buf.internalNioBuffer(writerIndex, length));
+			buf.writerIndex(writerIndex + length);
+			return buf;
+		}
+		
+		int length = ProtocalBinaryCodec.encodedLength(p);
+		ByteBuf buf = session.alloc().directBuffer(binary ? length : length + JSON_FRAME_OVERHEAD);
+		try
+		{
+			if(binary)
+			{
+				int writerIndex = buf.writerIndex();
+				ProtocalBinaryCodec.encode(p, buf.internalNioBuffer(writerIndex, length));
+				buf.writerIndex(writerIndex + length);
+			}
+			else
+			{
+				ProtocalFactory.toJson(p, new ByteBufUtf8Writer(buf));
+			}
+			return buf;
+		}
+		catch (RuntimeException e)
+		{
+			buf.release();
+			throw e;
+		}
+	}
+	
+	/**
+	 * 不解码整个数据帧，直接由客户端的echo包生成echo应答帧：应答与原包内容相同、只是协议类型不同，因而只需复制原帧并改写其类型字段。
+	 * @param session
+	 * @param buffer 客户端的echo包（不移动读索引）
+	 * @return 原帧的格式与会话的线上格式不一致、带有会话令牌等无法直接改写的情况下返回null（调用者应改为解码后再应答），
+	 * 否则由调用者负责写出或释放
+	 */
+	public static ByteBuf toEchoResponse(Channel session, ByteBuf buffer)
+	{
+		if(MBUDPPackedFrames.isPacked(buffer) || MBUDPChunkedFrames.isChunk(buffer)
+				|| !session.hasAttr(BINARY_PROTOCAL_IN_SESSION_ATTRIBUTE_ATTR)
+				|| isBinaryFrame(buffer) != isBinaryProtocal(session)
+				// 会话令牌须从应答中清除（与解码后应答的行为一致）
+				|| peekSessionToken(buffer) != 0)
+			return null;
+		
+		int readerIndex = buffer.readerIndex();
+		if(isBinaryFrame(buffer))
+		{
+			if(buffer.readableBytes() < 3)
+				return null;
+			ByteBuf buf = session.alloc().directBuffer(buffer.readableBytes());
+			buf.writeBytes(buffer, readerIndex, buffer.readableBytes());
+			buf.setByte(buf.readerIndex() + 1, ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$ECHO);
+			return buf;
+		}
+		
+		int i = indexOf(buffer, JSON_TYPE);
+		if(i < 0)
+			return null;
+		int begin = i + JSON_TYPE.length, end = begin;
+		while(end < buffer.writerIndex() && buffer.getByte(end) >= '0' && buffer.getByte(end) <= '9')
+			end++;
+		
+		byte[] type = CharsetHelper.getBytes(String.valueOf(ProtocalType.S.FROM_SERVER_TYPE_OF_RESPONSE$ECHO));
+		ByteBuf buf = session.alloc().directBuffer(buffer.readableBytes() - (end - begin) + type.length);
+		buf.writeBytes(buffer, readerIndex, begin - readerIndex);
+		buf.writeBytes(type);
+		buf.writeBytes(buffer, end, buffer.writerIndex() - end);
+		return buf;
+	}
+	
+	/**
+	 * 按会话所协商的线上格式将Protocal编码为待发送的字节数组。
+	 * @param session
+	 * @param p
+	 * @return
+	 */
+	public static byte[] toBytes(Channel session, Protocal p)
+	{
+		if(isBinaryProtocal(session))
+			return ProtocalBinaryCodec.encode(p);
+		return p.toBytes();
+	}
+	
+	public static boolean isBinaryProtocal(Channel session)
+	{
+		return Boolean.TRUE.equals(session.attr(BINARY_PROTOCAL_IN_SESSION_ATTRIBUTE_ATTR).get());
+	}
+	
+	public static void setBinaryProtocal(Channel session, boolean binary)
+	{
+		session.attr(BINARY_PROTOCAL_IN_SESSION_ATTRIBUTE_ATTR).set(binary);
+	}
+	
+	/**
+	 * 取得会话的分片传输状态，尚无时即创建。
+	 * @param session
+	 * @return
+	 */
+	public static MBUDPChunkTransfer getChunkTransfer(Channel session)
+	{
+		Attribute<MBUDPChunkTransfer> attr = session.attr(CHUNK_TRANSFER_IN_SESSION_ATTRIBUTE_ATTR);
+		MBUDPChunkTransfer transfer = attr.get();
+		if(transfer == null)
+		{
+			transfer = new MBUDPChunkTransfer(ServerLauncher.CHUNK_SIZE
+					, ServerLauncher.CHUNK_BUFFER_MAX_BYTES, ServerLauncher.CHUNK_RETRANSMIT_INTERVAL);
+			MBUDPChunkTransfer old = attr.setIfAbsent(transfer);
+			if(old != null)
+				transfer = old;
+		}
+		return transfer;
+	}
+	
+	/**
+	 * 会话关闭时释放其分片传输缓冲（此后再对该会话分片发送的数据帧将被直接丢弃）。
+	 * @param session
+	 */
+	public static void releaseChunkTransfer(Channel session)
+	{
+		// 即使尚未创建也须创建一个并置为已释放，以免关闭过程中并发分片发送的数据帧被保留在新创建的对象中而无人释放
+		getChunkTransfer(session).release();
+	}
+	
+	/**
+	 * 设置发给该会话的数据帧是否打包发送（见 ServerLauncher.packingEnabled ）。
+	 * @param session
+	 * @param packed 客户端是否支持打包帧
+	 */
+	public static void setPackedProtocal(Channel session, boolean packed)
+	{
+		if(session instanceof MBUDPChannel)
+			((MBUDPChannel) session).setPackingBudget(
+					packed && ServerLauncher.packingEnabled ? Math.max(ServerLauncher.PACKING_MTU, 0) : 0);
 	}
     
     public enum SenseMode